@@ -0,0 +1,401 @@
+package net.keinr.pacman;
+
+import javafx.scene.shape.Rectangle;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.keinr.util.Debug;
+
+/**
+ * Microbenchmarks for the engine's hot paths.
+ * Each benchmark is warmed up, then measured over several timed iterations, and reported in nanoseconds per operation.
+ * Results are fed into a sink so the JIT can't throw the work away, and all randomness is seeded so runs are repeatable.
+ * Usage: ./benchmark [name filter...]
+ * @author Orion Musselman (KeinR)
+ */
+
+public final class Benchmarks {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500000000L; // How long each iteration runs for
+    private static final long SEED = 42; // Seed for the engine & input randomness
+    private static final int[] TURNS = { Direction.UP, Direction.DOWN, Direction.LEFT, Direction.RIGHT };
+    private static final int BIG_MAP = 512; // Width & height of the generated map for the hierarchical pathfinding benchmarks
+
+    private static volatile long sink; // Where results go to stay alive
+
+    private Benchmarks() {}
+
+    /** One operation to measure */
+    private interface Operation {
+        long run() throws Exception;
+
+        /** Undoes whatever setup started (threads & such), once measuring is done */
+        default void teardown() {}
+    }
+
+    /** Prepares state for a benchmark, and gives the operation to measure */
+    private interface Setup {
+        Operation setup() throws Exception;
+    }
+
+    private static final class Benchmark {
+        private final String name;
+        private final Setup setup;
+        private Benchmark(String name, Setup setup) {
+            this.name = name;
+            this.setup = setup;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        // Ghost A*
+        benchmarks.add(new Benchmark("astar.short", () -> astar(Target.SHORT)));
+        benchmarks.add(new Benchmark("astar.long", () -> astar(Target.LONG)));
+        benchmarks.add(new Benchmark("astar.unreachable", () -> astar(Target.UNREACHABLE)));
+
+        // Pathfinding across a big map: flat A* without a cap, A* with the ghosts' cap, and hierarchical
+        benchmarks.add(new Benchmark("astar.big", () -> {
+            final Pathfinder pathfinder = new Pathfinder(bigGrid());
+            return () -> pathfinder.find(2, 2, BIG_MAP-3, BIG_MAP-3, Integer.MAX_VALUE);
+        }));
+        benchmarks.add(new Benchmark("astar.big.capped", () -> {
+            final Pathfinder pathfinder = new Pathfinder(bigGrid());
+            return () -> pathfinder.find(2, 2, BIG_MAP-3, BIG_MAP-3, 1000);
+        }));
+        benchmarks.add(new Benchmark("hpa.big", () -> {
+            final HierarchicalPathfinder pathfinder = new HierarchicalPathfinder(ClusterGraph.build(bigGrid()));
+            return () -> pathfinder.find(2, 2, BIG_MAP-3, BIG_MAP-3, 1000);
+        }));
+        benchmarks.add(new Benchmark("hpa.build", () -> {
+            final Grid grid = bigGrid();
+            return () -> ClusterGraph.build(grid).columns;
+        }));
+        benchmarks.add(new Benchmark("hpa.rebuild", () -> {
+            // Walls off a 16x16 area in the middle of the map
+            final Grid grid = bigGrid();
+            final boolean[] open = new boolean[BIG_MAP*BIG_MAP];
+            for (int i = 0; i < open.length; i++) open[i] = grid.isOpen(i);
+            final int corner = BIG_MAP/2 - 8;
+            for (int y = corner; y < corner+16; y++) {
+                for (int x = corner; x < corner+16; x++) open[y*BIG_MAP + x] = false;
+            }
+            final Grid changed = new Grid(BIG_MAP, BIG_MAP, open);
+            final ClusterGraph graph = ClusterGraph.build(grid);
+            return () -> graph.rebuild(changed, corner, corner, 16, 16).columns;
+        }));
+
+        // Full game cycle
+        for (int ghosts : new int[] { 5, 50, 500 }) {
+            benchmarks.add(new Benchmark("cycle.ghosts"+ghosts, () -> cycle(ghosts, true)));
+        }
+        benchmarks.add(new Benchmark("cycle.ghosts500.sequential", () -> cycle(500, false)));
+
+        // Line of sight, as used by Ghost#playerInView
+        benchmarks.add(new Benchmark("playerInView", Benchmarks::lineOfSight));
+
+        // Loading the map & save data
+        benchmarks.add(new Benchmark("setup.load", () -> () -> {
+            Engine.setSeed(SEED);
+            Engine.load(View.NONE);
+            return Engine.getGhostCount();
+        }));
+
+        // Static maze background: rasterized once vs. a node per rectangle
+        benchmarks.add(new Benchmark("maze.raster", () -> {
+            final boolean[] open = openTiles();
+            return () -> MazeImage.render(Engine.getMapWidth(), Engine.getMapHeight(), open, Engine.RATIO, 0xff0d0083, 0xff464646).getRectangleCount();
+        }));
+        benchmarks.add(new Benchmark("maze.chunk", () -> {
+            final boolean[] open = openTiles();
+            final int size = Engine.getMapWidth(), chunk = Math.min(ChunkedMap.CHUNK_SIZE, size-2);
+            return () -> MazeImage.render(size, size, open, 1, 1, chunk, chunk, Engine.RATIO, 0xff0d0083, 0xff464646).getRectangleCount();
+        }));
+        benchmarks.add(new Benchmark("maze.nodes", () -> {
+            final boolean[] open = openTiles();
+            return () -> mazeNodes(open).size();
+        }));
+
+        // Debug logging
+        benchmarks.add(new Benchmark("debug.logRouted.off", () -> {
+            final Debug debug = new Debug(false);
+            return () -> {
+                debug.logRouted(0, "Tracking random -> ("+sink+", "+sink+")");
+                return 0;
+            };
+        }));
+        benchmarks.add(new Benchmark("debug.logRouted.on", () -> {
+            final Debug debug = new Debug(true);
+            return () -> {
+                debug.logRouted(0, "Tracking random -> ("+sink+", "+sink+")");
+                return 0;
+            };
+        }));
+
+        benchmarks.add(new Benchmark("debug.supplier.off", () -> {
+            final Debug debug = new Debug(false);
+            return () -> {
+                debug.logRouted(0, () -> "Tracking random -> ("+sink+", "+sink+")");
+                return 0;
+            };
+        }));
+        benchmarks.add(new Benchmark("debug.supplier.on", () -> {
+            final Debug debug = new Debug(true);
+            return () -> {
+                debug.logRouted(0, () -> "Tracking random -> ("+sink+", "+sink+")");
+                return 0;
+            };
+        }));
+        benchmarks.add(new Benchmark("debug.pattern.off", () -> {
+            final Debug debug = new Debug(false);
+            return () -> {
+                debug.logRouted(0, "Tracking random -> ({}, {})", sink, sink);
+                return 0;
+            };
+        }));
+        benchmarks.add(new Benchmark("debug.pattern.on", () -> {
+            final Debug debug = new Debug(true);
+            return () -> {
+                debug.logRouted(0, "Tracking random -> ({}, {})", sink, sink);
+                return 0;
+            };
+        }));
+        for (Debug.Overflow overflow : Debug.Overflow.values()) {
+            benchmarks.add(new Benchmark("debug.async."+overflow.name().toLowerCase(), () -> {
+                final Debug debug = new Debug(true);
+                debug.startAsync(4096, overflow);
+                return withTeardown(() -> {
+                    debug.logRouted(0, "Tracking random -> ({}, {})", sink, sink);
+                    return 0;
+                }, debug::stopAsync);
+            }));
+        }
+        // What the game's call sites do: Log checks its static final flag first
+        benchmarks.add(new Benchmark("debug.main.off", () -> () -> {
+            final long value = sink;
+            Log.logDebug("Found path; length = {} from ({}, {}) to ({}, {})", value, value, value, value, value);
+            return value;
+        }));
+
+        final PrintStream out = System.out;
+        out.printf("%-28s %14s %12s%n", "Benchmark", "ns/op", "error");
+        for (Benchmark benchmark : benchmarks) {
+            if (matches(benchmark.name, args)) {
+                System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Silence anything the benchmark prints
+                final double[] result;
+                try {
+                    final Operation operation = benchmark.setup.setup();
+                    try {
+                        result = measure(operation);
+                    } finally {
+                        operation.teardown(); // Before stdout comes back, so anything it flushes stays silenced
+                    }
+                } finally {
+                    System.setOut(out);
+                }
+                out.printf("%-28s %14.1f %12.1f%n", benchmark.name, result[0], result[1]);
+            }
+        }
+    }
+
+    private static Operation withTeardown(Operation operation, Runnable teardown) {
+        return new Operation() {
+            @Override
+            public long run() throws Exception { return operation.run(); }
+
+            @Override
+            public void teardown() { teardown.run(); }
+        };
+    }
+
+    private static boolean matches(String name, String[] filters) {
+        if (filters.length == 0) return true;
+        for (String filter : filters) {
+            if (name.contains(filter)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Mean ns/op & its standard deviation over the measured iterations
+     */
+    private static double[] measure(Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) iteration(operation);
+        final double[] samples = new double[MEASUREMENT_ITERATIONS];
+        double mean = 0;
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = iteration(operation);
+            mean += samples[i];
+        }
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) variance += (sample-mean)*(sample-mean);
+        return new double[] { mean, Math.sqrt(variance/samples.length) };
+    }
+
+    private static double iteration(Operation operation) throws Exception {
+        long ops = 0, result = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 64; i++) result += operation.run(); // Batched so that reading the clock doesn't dominate
+            ops += 64;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+        sink += result;
+        return (double)elapsed/ops;
+    }
+
+    // Benchmarks
+
+    private static boolean[] openTiles() {
+        Engine.setSeed(SEED);
+        Engine.load(View.NONE);
+        final int size = Engine.getMapWidth(); // The bundled map is square
+        final boolean[] open = new boolean[size*size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                open[y*size + x] = Engine.isOpen(x, y);
+            }
+        }
+        return open;
+    }
+
+    // A big map of pillars & short walls, open from corner to corner
+    private static Grid bigGrid() {
+        final boolean[] open = new boolean[BIG_MAP*BIG_MAP];
+        for (int y = 0; y < BIG_MAP; y++) {
+            for (int x = 0; x < BIG_MAP; x++) {
+                final boolean border = x == 0 || y == 0 || x == BIG_MAP-1 || y == BIG_MAP-1;
+                open[y*BIG_MAP + x] = !border && !(x%3 == 0 && y%3 == 0) && !(x%7 == 0 && y%11 < 6);
+            }
+        }
+        return new Grid(BIG_MAP, BIG_MAP, open);
+    }
+
+    // How the maze used to be built: a styled rectangle per wall tile, and per exposed wall edge
+    private static List<Rectangle> mazeNodes(boolean[] open) {
+        final int size = Engine.getMapWidth();
+        final double ratio = Engine.RATIO;
+        final List<Rectangle> nodes = new ArrayList<Rectangle>();
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (open[y*size + x]) {
+                    if (x+1 < size && !open[y*size + x+1]) nodes.add(styled(x*ratio+ratio, y*ratio, ratio*0.1, ratio, "wallBorder"));
+                    if (x-1 >= 0 && !open[y*size + x-1]) nodes.add(styled(x*ratio-ratio*0.1, y*ratio, ratio*0.1, ratio, "wallBorder"));
+                    if (y+1 < size && !open[(y+1)*size + x]) nodes.add(styled(x*ratio, y*ratio+ratio, ratio, ratio*0.1, "wallBorder"));
+                    if (y-1 >= 0 && !open[(y-1)*size + x]) nodes.add(styled(x*ratio, y*ratio-ratio*0.1, ratio, ratio*0.1, "wallBorder"));
+                } else {
+                    nodes.add(styled(x*ratio, y*ratio, ratio, ratio, "wall"));
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private static Rectangle styled(double x, double y, double w, double h, String styleClass) {
+        final Rectangle rect = new Rectangle(x, y, w, h);
+        rect.getStyleClass().add(styleClass);
+        return rect;
+    }
+
+    private enum Target { SHORT, LONG, UNREACHABLE }
+
+    private static Operation astar(Target target) {
+        final boolean[] walkable = openTiles();
+        final int size = Engine.getMapWidth(); // Only known once openTiles has loaded the map
+
+        // An open tile that's walled in, so the search has to explore everything it can reach before giving up
+        int enclosed = -1;
+        if (target == Target.UNREACHABLE) {
+            for (int i = walkable.length-1; enclosed == -1; i--) {
+                if (walkable[i]) enclosed = i;
+            }
+            final int ex = enclosed%size, ey = enclosed/size;
+            if (ey > 0) walkable[enclosed-size] = false;
+            if (ey+1 < size) walkable[enclosed+size] = false;
+            if (ex > 0) walkable[enclosed-1] = false;
+            if (ex+1 < size) walkable[enclosed+1] = false;
+        }
+        final Grid grid = new Grid(size, size, walkable);
+
+        // Pick the start & target tiles
+        final NextHopTable table = NextHopTable.build(grid);
+        int from = -1, to = -1, best = -1;
+        for (int a = 0; a < walkable.length; a++) {
+            if (!walkable[a]) continue;
+            for (int b = 0; b < walkable.length; b++) {
+                if (target == Target.UNREACHABLE) {
+                    if (b == enclosed && a != enclosed) { from = a; to = b; break; }
+                    continue;
+                }
+                final int distance = walkable[b] ? table.distance(a%size, a/size, b%size, b/size) : -1;
+                if (target == Target.SHORT ? distance == 1 : distance > best) {
+                    from = a;
+                    to = b;
+                    best = distance;
+                    if (target == Target.SHORT) break;
+                }
+            }
+            if (to != -1 && target != Target.LONG) break;
+        }
+
+        final Pathfinder pathfinder = new Pathfinder(grid);
+        final int x = from%size, y = from/size, tx = to%size, ty = to/size;
+        pathfinder.find(x, y, tx, ty, 1000);
+        if (target == Target.UNREACHABLE && (!pathfinder.isContingency() || pathfinder.getIterations() <= 1)) {
+            throw new IllegalStateException("Unreachable target didn't make the search explore");
+        }
+        return () -> pathfinder.find(x, y, tx, ty, 1000);
+    }
+
+    private static Operation cycle(int ghosts, boolean parallel) {
+        Engine.setParallelGhosts(parallel ? 64 : Integer.MAX_VALUE);
+        Engine.setSeed(SEED);
+        Engine.load(View.NONE, ghosts);
+        final Random input = new Random(SEED);
+        return new Operation() {
+            private int ticks;
+            @Override
+            public long run() {
+                if (Engine.isGameOver()) Engine.start();
+                if (ticks++ % 50 == 0) Engine.keyPressed(TURNS[input.nextInt(TURNS.length)]);
+                Engine.tick();
+                return ticks;
+            }
+        };
+    }
+
+    private static Operation lineOfSight() {
+        Engine.setSeed(SEED);
+        Engine.load(View.NONE);
+        final int size = Engine.getMapWidth();
+
+        // Every pair of open tiles that share a row or column
+        final List<int[]> pairs = new ArrayList<int[]>();
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (!Engine.isOpen(x, y)) continue;
+                for (int i = 0; i < size; i++) {
+                    if (Engine.isOpen(i, y)) pairs.add(new int[] { x, y, i, y });
+                    if (Engine.isOpen(x, i)) pairs.add(new int[] { x, y, x, i });
+                }
+            }
+        }
+        final int[][] cases = pairs.toArray(int[][]::new);
+        return new Operation() {
+            private int next;
+            @Override
+            public long run() {
+                final int[] c = cases[next];
+                next = next+1 == cases.length ? 0 : next+1;
+                return Engine.inLineOfSight(c[0], c[1], c[2], c[3]) ? 1 : 0;
+            }
+        };
+    }
+}
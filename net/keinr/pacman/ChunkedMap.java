@@ -0,0 +1,47 @@
+package net.keinr.pacman;
+
+/**
+ * Per-tile storage for maps of any size, split into square chunks.
+ * A chunk's storage is only allocated once something is put in it,
+ * so the solid areas of a map don't cost anything.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class ChunkedMap<T> {
+    static final int CHUNK_SHIFT = 4;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // Width & height of a chunk, in tiles
+    private static final int CHUNK_MASK = CHUNK_SIZE-1;
+
+    final int width, height; // In tiles
+    final int chunkColumns, chunkRows;
+    private final Object[][] chunks; // Chunk index (cy*chunkColumns + cx) -> tiles, or null if it's empty
+
+    /**
+     * @param width Width of the map in tiles
+     * @param height Height of the map in tiles
+     */
+    ChunkedMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.chunkColumns = (width+CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunkRows = (height+CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunks = new Object[chunkColumns*chunkRows][];
+    }
+
+    /** @return What's at the tile, or null if nothing is */
+    @SuppressWarnings("unchecked")
+    T get(int x, int y) {
+        final Object[] chunk = chunks[(y >> CHUNK_SHIFT)*chunkColumns + (x >> CHUNK_SHIFT)];
+        return chunk == null ? null : (T)chunk[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)];
+    }
+
+    /** Puts something at a tile */
+    void set(int x, int y, T value) {
+        final int index = (y >> CHUNK_SHIFT)*chunkColumns + (x >> CHUNK_SHIFT);
+        if (chunks[index] == null) {
+            if (value == null) return;
+            chunks[index] = new Object[CHUNK_SIZE*CHUNK_SIZE];
+        }
+        chunks[index][((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)] = value;
+    }
+}
@@ -0,0 +1,241 @@
+package net.keinr.pacman;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Abstract graph of a map for hierarchical pathfinding (HPA*).
+ * The map is split into square clusters. Wherever two neighbouring clusters share a run of open tiles
+ * along their border there's an entrance in the middle of the run, which gives a node on each side of it.
+ * Each cluster knows the shortest path between every pair of its nodes that stays inside it, so a search
+ * over the graph only touches entrances, never tiles.
+ * Clusters are never modified once built. When part of the map changes, {@link #rebuild} makes a new graph
+ * that shares every cluster the change couldn't have affected, so searches on the old graph can carry on.
+ * Nodes are numbered cluster*MAX_NODES + the node's number within its cluster.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class ClusterGraph {
+    static final int CLUSTER_SHIFT = ChunkedMap.CHUNK_SHIFT; // Clusters line up with chunks
+    static final int CLUSTER_SIZE = 1 << CLUSTER_SHIFT; // Width & height of a cluster, in tiles
+    static final int CLUSTER_AREA = CLUSTER_SIZE*CLUSTER_SIZE;
+    static final int MAX_NODES = 4*((CLUSTER_SIZE+1) >> 1); // Per cluster; runs on a side are at least a tile apart
+    private static final int CLUSTER_MASK = CLUSTER_SIZE-1;
+
+    final Grid grid;
+    final int columns, rows; // In clusters
+    private final Cluster[] clusters; // Cluster index (cy*columns + cx) -> cluster
+
+    private ClusterGraph(Grid grid, Cluster[] clusters) {
+        this.grid = grid;
+        this.columns = (grid.width+CLUSTER_MASK) >> CLUSTER_SHIFT;
+        this.rows = (grid.height+CLUSTER_MASK) >> CLUSTER_SHIFT;
+        this.clusters = clusters != null ? clusters : new Cluster[columns*rows];
+    }
+
+    /**
+     * Builds the graph, one cluster per task in parallel
+     * @param grid The map
+     * @return The graph
+     */
+    static ClusterGraph build(Grid grid) {
+        final ClusterGraph graph = new ClusterGraph(grid, null);
+        IntStream.range(0, graph.clusters.length).parallel().forEach(c -> graph.clusters[c] = graph.buildCluster(c));
+        return graph;
+    }
+
+    /**
+     * Makes the graph for a changed version of the map, only rebuilding the clusters the change could have
+     * affected: the ones overlapping the changed area, and the ones beside them, since the entrances on their
+     * shared borders may have moved. Everything else is shared with this graph, which is left as it was.
+     * @param changed The changed map; must be the same size as this one
+     * @param x Grid x of the changed area
+     * @param y Grid y of the changed area
+     * @param width Width of the changed area, in tiles
+     * @param height Height of the changed area, in tiles
+     * @return The new graph
+     */
+    ClusterGraph rebuild(Grid changed, int x, int y, int width, int height) {
+        if (changed.width != grid.width || changed.height != grid.height) {
+            throw new IllegalArgumentException("Map changed size, build a new graph instead");
+        }
+        final ClusterGraph graph = new ClusterGraph(changed, clusters.clone());
+        final int left = x >> CLUSTER_SHIFT, top = y >> CLUSTER_SHIFT;
+        final int right = (x+width-1) >> CLUSTER_SHIFT, bottom = (y+height-1) >> CLUSTER_SHIFT;
+        for (int cy = Math.max(0, top-1); cy <= Math.min(rows-1, bottom+1); cy++) {
+            for (int cx = Math.max(0, left-1); cx <= Math.min(columns-1, right+1); cx++) {
+                if ((cx < left || cx > right) && (cy < top || cy > bottom)) continue; // Diagonal, doesn't share a border
+                final int c = cy*columns + cx;
+                graph.clusters[c] = graph.buildCluster(c);
+            }
+        }
+        return graph;
+    }
+
+    /** @return Index of the cluster a tile is in */
+    int clusterAt(int x, int y) {
+        return (y >> CLUSTER_SHIFT)*columns + (x >> CLUSTER_SHIFT);
+    }
+
+    /** @return The cluster at an index */
+    Cluster cluster(int index) {
+        return clusters[index];
+    }
+
+    /** @return Number of nodes in the whole graph, counting the unused numbers of clusters that aren't full */
+    int nodeCapacity() {
+        return clusters.length*MAX_NODES;
+    }
+
+    /**
+     * @param node A node in the graph
+     * @return The node on the other side of its entrance, in the neighbouring cluster
+     */
+    int partner(int node) {
+        final int c = node / MAX_NODES, local = node % MAX_NODES;
+        final Cluster cluster = clusters[c];
+        final int side = cluster.side(local);
+        final int other = c + (side == Direction.UP ? -columns : side == Direction.DOWN ? columns : side == Direction.LEFT ? -1 : 1);
+        // Both sides of a border find the same runs in the same order, so the partner has the same position on its side
+        return other*MAX_NODES + clusters[other].sideStart[side ^ 1] + local - cluster.sideStart[side];
+    }
+
+    /**
+     * Breadth first search from a tile, without leaving its cluster.
+     * Tiles are given by their index within the cluster, (y - cluster y)*CLUSTER_SIZE + (x - cluster x).
+     * @param cluster The cluster to search in
+     * @param origin Grid index of the tile to search from
+     * @param distance Filled with the distance to each tile from the origin, or -1 if it can't be reached
+     * @param from Filled with the tile each tile was reached from
+     * @param queue Scratch space. All three arrays need to hold CLUSTER_AREA.
+     */
+    void search(Cluster cluster, int origin, int[] distance, int[] from, int[] queue) {
+        Arrays.fill(distance, -1);
+        final int start = cluster.local(origin);
+        distance[start] = 0;
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            final int focus = queue[head++];
+            final int lx = focus & CLUSTER_MASK, ly = focus >> CLUSTER_SHIFT, next = distance[focus] + 1;
+            final int exits = grid.exits(cluster.tile(focus));
+            // Exits keep us on the map, the bounds keep us in the cluster
+            if ((exits & Grid.UP) != 0 && ly > 0) tail = visit(focus-CLUSTER_SIZE, focus, next, distance, from, queue, tail);
+            if ((exits & Grid.DOWN) != 0 && ly+1 < cluster.height) tail = visit(focus+CLUSTER_SIZE, focus, next, distance, from, queue, tail);
+            if ((exits & Grid.LEFT) != 0 && lx > 0) tail = visit(focus-1, focus, next, distance, from, queue, tail);
+            if ((exits & Grid.RIGHT) != 0 && lx+1 < cluster.width) tail = visit(focus+1, focus, next, distance, from, queue, tail);
+        }
+    }
+
+    private static int visit(int tile, int focus, int next, int[] distance, int[] from, int[] queue, int tail) {
+        if (distance[tile] != -1) return tail;
+        distance[tile] = next;
+        from[tile] = focus;
+        queue[tail] = tile;
+        return tail+1;
+    }
+
+    /**
+     * @param from A cluster tile, by index within the cluster
+     * @param to A neighbouring tile, by index within the same cluster
+     * @return The direction to move in to get from one to the other
+     */
+    static int direction(int from, int to) {
+        final int d = to - from;
+        if (d == -CLUSTER_SIZE) return Direction.UP;
+        if (d == CLUSTER_SIZE) return Direction.DOWN;
+        return d == -1 ? Direction.LEFT : Direction.RIGHT;
+    }
+
+    // Finds the cluster's entrances, then the paths between them
+    private Cluster buildCluster(int c) {
+        final int cx = c % columns, cy = c / columns;
+        final int x = cx << CLUSTER_SHIFT, y = cy << CLUSTER_SHIFT;
+        final int width = Math.min(CLUSTER_SIZE, grid.width-x), height = Math.min(CLUSTER_SIZE, grid.height-y);
+        final int topLeft = y*grid.width + x;
+
+        // Sides go in Direction order, so that a side's index is its direction
+        final int[] tiles = new int[MAX_NODES];
+        final int[] sideStart = new int[5];
+        int count = 0;
+        sideStart[Direction.UP] = count;
+        if (cy > 0) count = entrances(tiles, count, topLeft, 1, width, Grid.UP);
+        sideStart[Direction.DOWN] = count;
+        if (cy < rows-1) count = entrances(tiles, count, topLeft + (height-1)*grid.width, 1, width, Grid.DOWN);
+        sideStart[Direction.LEFT] = count;
+        if (cx > 0) count = entrances(tiles, count, topLeft, grid.width, height, Grid.LEFT);
+        sideStart[Direction.RIGHT] = count;
+        if (cx < columns-1) count = entrances(tiles, count, topLeft + width-1, grid.width, height, Grid.RIGHT);
+        sideStart[4] = count;
+
+        final Cluster cluster = new Cluster(x, y, width, height, grid.width, Arrays.copyOf(tiles, count), sideStart);
+        final int[] distance = new int[CLUSTER_AREA], from = new int[CLUSTER_AREA], queue = new int[CLUSTER_AREA];
+        for (int a = 0; a < count; a++) {
+            search(cluster, cluster.tiles[a], distance, from, queue);
+            for (int b = 0; b < count; b++) {
+                cluster.costs[a*count + b] = (short)distance[cluster.local(cluster.tiles[b])];
+            }
+        }
+        return cluster;
+    }
+
+    // Walks along one side of a cluster, adding an entrance in the middle of every run of tiles that can cross it
+    private int entrances(int[] tiles, int count, int first, int step, int length, int exit) {
+        int run = -1;
+        for (int i = 0; i <= length; i++) {
+            final boolean crossable = i < length && (grid.exits(first + i*step) & exit) != 0;
+            if (crossable && run == -1) {
+                run = i;
+            } else if (!crossable && run != -1) {
+                tiles[count++] = first + ((run+i-1) >> 1)*step;
+                run = -1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * One cluster of the graph. Shared between graphs, so don't modify.
+     */
+    static final class Cluster {
+        final int x, y, width, height; // Bounds, in tiles
+        final int[] tiles; // Node -> grid index of the tile it's on
+        final short[] costs; // [a*count + b] -> moves from node a to node b without leaving the cluster, or -1
+        private final int mapWidth;
+        private final int[] sideStart; // Side (a Direction) -> its first node; the last entry is the node count
+
+        private Cluster(int x, int y, int width, int height, int mapWidth, int[] tiles, int[] sideStart) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.mapWidth = mapWidth;
+            this.tiles = tiles;
+            this.sideStart = sideStart;
+            this.costs = new short[tiles.length*tiles.length];
+        }
+
+        /** @return Number of nodes in the cluster */
+        int count() { return tiles.length; }
+
+        /** @return Moves from one node to another without leaving the cluster, or -1 if it can't be done */
+        int cost(int from, int to) { return costs[from*tiles.length + to]; }
+
+        /** @return The side (a Direction) a node's entrance is on */
+        int side(int node) {
+            int side = 0;
+            while (node >= sideStart[side+1]) side++;
+            return side;
+        }
+
+        /** @return Index of a tile within the cluster, given its grid index */
+        int local(int tile) {
+            return ((tile/mapWidth - y) << CLUSTER_SHIFT) | (tile%mapWidth - x);
+        }
+
+        /** @return Grid index of a tile, given its index within the cluster */
+        int tile(int local) {
+            return (y + (local >> CLUSTER_SHIFT))*mapWidth + x + (local & CLUSTER_MASK);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package net.keinr.pacman;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static net.keinr.pacman.Log.logDebug;
+
+/**
+ * A map image, classified into tiles. Compiled once into a binary file next to the image
+ * (along with the spawn points, open tiles & walkability grid) and read back from then on,
+ * so the image only has to be decoded again when it changes.
+ * The file is just a cache; everything in it is copied onto the heap, since the game reads tiles far too often
+ * to go through a buffer.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class CompiledMap {
+    private static final int MAGIC = 0x54494c45; // "TILE"
+    private static final int VERSION = 1;
+    private static final String CACHE_SUFFIX = ".tiles"; // Appended to the map file name to get the compiled file
+
+    // Touch at your own risk
+    private static final int WALL_DEC = 255; // Wall tile color representation in base 10
+    private static final int PSP_DEC = 53504; // Player spawn point color representation in base 10
+    private static final int ESP_DEC = 16711684; // Enemy spawn point color representation in base 10
+
+    final int width, height; // In tiles
+    final int[] openTiles, playerSpawnpoints, enemySpawnpoints; // Tile indices (y*width + x), in row order
+    final Grid grid;
+    final byte[] hash; // SHA-256 of the image, for other caches made from it. Null if the image couldn't be hashed.
+
+    private CompiledMap(byte[] hash, int width, int height, int[] openTiles, int[] playerSpawnpoints, int[] enemySpawnpoints, Grid grid) {
+        this.hash = hash;
+        this.width = width;
+        this.height = height;
+        this.openTiles = openTiles;
+        this.playerSpawnpoints = playerSpawnpoints;
+        this.enemySpawnpoints = enemySpawnpoints;
+        this.grid = grid;
+    }
+
+    /**
+     * Loads the compiled map next to the image, or compiles it (and saves it) if it's
+     * missing or was made from a different image
+     * @param source The map image
+     * @return The map
+     * @throws IOException If the image can't be read
+     */
+    static CompiledMap load(Path source) throws IOException {
+        final Path cache = Paths.get(source.toString()+CACHE_SUFFIX);
+        byte[] hash = null;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(source));
+            final CompiledMap map = read(cache, hash);
+            if (map != null) {
+                logDebug("Loaded compiled map from {}", cache);
+                return map;
+            }
+        } catch (NoSuchFileException e) {
+            // Not compiled yet, we'll do it now
+        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) { // Runtime ones from a truncated file
+            Engine.warn("Could not read compiled map: "+e.toString());
+        }
+
+        final long start = System.nanoTime();
+        final CompiledMap map = compile(source, hash);
+        logDebug("Compiled {}x{} map in {}ms", map.width, map.height, (System.nanoTime()-start)/1000000);
+
+        if (hash != null) {
+            try {
+                map.write(cache, hash);
+            } catch (IOException e) {
+                Engine.warn("Could not write compiled map: "+e.toString());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Decodes & classifies a map image
+     * @param source The map image
+     * @param hash SHA-256 of the image, or null
+     * @return The map
+     * @throws IOException If the image can't be read
+     */
+    static CompiledMap compile(Path source, byte[] hash) throws IOException {
+        final BufferedImage image = ImageIO.read(source.toFile());
+        if (image == null) throw new IOException("Not an image: "+source);
+        final int width = image.getWidth(), height = image.getHeight();
+        final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        final boolean[] open = new boolean[width*height];
+        final int[] openTiles = new int[pixels.length];
+        final int[] playerSpawnpoints = new int[pixels.length];
+        final int[] enemySpawnpoints = new int[pixels.length];
+        int openCount = 0, playerCount = 0, enemyCount = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            final int value = pixels[i] + 16777216; // Remove alpha value
+            if (value == WALL_DEC) continue;
+            open[i] = true;
+            openTiles[openCount++] = i;
+            switch (value) { // Get sections
+                case ESP_DEC: // Enemy sp
+                    enemySpawnpoints[enemyCount++] = i;
+                    break;
+                case PSP_DEC: // Player sp
+                    playerSpawnpoints[playerCount++] = i;
+                    break;
+            }
+        }
+        return new CompiledMap(hash, width, height,
+            Arrays.copyOf(openTiles, openCount),
+            Arrays.copyOf(playerSpawnpoints, playerCount),
+            Arrays.copyOf(enemySpawnpoints, enemyCount),
+            new Grid(width, height, open));
+    }
+
+    // The header is checked with a plain read first, so a stale file is never mapped; a mapping lives
+    // until it's garbage collected, and on some systems the file can't be rewritten while it does
+    private static CompiledMap read(Path cache, byte[] hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(3*Integer.BYTES + hash.length + 2*Integer.BYTES);
+            while (header.hasRemaining() && channel.read(header) != -1);
+            header.flip();
+            if (header.remaining() < 3*Integer.BYTES || header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != hash.length || header.remaining() < hash.length + 2*Integer.BYTES) return null;
+            final byte[] cachedHash = new byte[hash.length];
+            header.get(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) return null;
+            final int width = header.getInt(), height = header.getInt();
+
+            // Valid, so the rest is mapped to copy it straight into the arrays
+            final MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, header.position(), channel.size()-header.position());
+            final int[] openTiles = readInts(in);
+            final int[] playerSpawnpoints = readInts(in);
+            final int[] enemySpawnpoints = readInts(in);
+            return new CompiledMap(hash, width, height, openTiles, playerSpawnpoints, enemySpawnpoints, Grid.read(in, width, height));
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        final int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length*Integer.BYTES);
+        return values;
+    }
+
+    private void write(Path cache, byte[] hash) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(cache)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(hash.length);
+            out.write(hash);
+            out.writeInt(width);
+            out.writeInt(height);
+            writeInts(out, openTiles);
+            writeInts(out, playerSpawnpoints);
+            writeInts(out, enemySpawnpoints);
+            grid.write(out);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) out.writeInt(value);
+    }
+}
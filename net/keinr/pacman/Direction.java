@@ -0,0 +1,28 @@
+package net.keinr.pacman;
+
+/**
+ * Directions that the player & ghosts move in, as small ints so that they can be kept in
+ * primitive arrays and switched on. A direction's value is also the shift of its bit in
+ * {@link Grid#exits(int)}, and its index in the next hop table.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Direction {
+    static final int NONE = -1; // Not moving
+    static final int UP = 0;
+    static final int DOWN = 1;
+    static final int LEFT = 2;
+    static final int RIGHT = 3;
+
+    private Direction() {}
+
+    /** @return How much moving in the direction changes grid x */
+    static int dx(int direction) {
+        return direction == LEFT ? -1 : direction == RIGHT ? 1 : 0;
+    }
+
+    /** @return How much moving in the direction changes grid y */
+    static int dy(int direction) {
+        return direction == UP ? -1 : direction == DOWN ? 1 : 0;
+    }
+}
@@ -0,0 +1,104 @@
+package net.keinr.pacman;
+
+/**
+ * Breadth first distances from one tile (the player's) to the tiles around it, out to a set radius.
+ * Shared by all the ghosts: chasing ghosts walk downhill towards the origin,
+ * and fleeing ghosts run to the farthest tile. Only recomputed when the origin moves.
+ * The field covers a square window centered on the origin (moved inwards at the edges of the map),
+ * so updating it costs the same however big the map is. Tiles outside the window count as unreachable.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class DistanceField {
+    private final int width, radius;
+    private final int windowWidth, windowHeight;
+    private final Grid grid;
+    private final int[] distance, stamp, queue; // By window index; distances are only valid if the stamp matches the current generation
+    private int generation, origin = -1, farthest = -1;
+    private int left, top; // Grid position of the window
+
+    /**
+     * @param grid The map the field covers
+     * @param radius How many tiles out from the origin the field reaches, across & down
+     */
+    DistanceField(Grid grid, int radius) {
+        this.width = grid.width;
+        this.radius = radius;
+        this.windowWidth = Math.min(2*radius+1, grid.width);
+        this.windowHeight = Math.min(2*radius+1, grid.height);
+        this.grid = grid;
+        final int size = windowWidth*windowHeight;
+        this.distance = new int[size];
+        this.stamp = new int[size];
+        this.queue = new int[size];
+    }
+
+    /**
+     * Moves the origin of the field, recomputing it if the origin changed
+     * @param x Origin grid x
+     * @param y Origin grid y
+     */
+    void update(int x, int y) {
+        final int tile = y*width + x;
+        if (tile == origin) return;
+        origin = tile;
+        generation++;
+        left = Math.max(0, Math.min(x-radius, grid.width-windowWidth));
+        top = Math.max(0, Math.min(y-radius, grid.height-windowHeight));
+
+        int head = 0, tail = 0;
+        final int start = (y-top)*windowWidth + (x-left);
+        distance[start] = 0;
+        stamp[start] = generation;
+        queue[tail++] = start;
+        while (head < tail) {
+            final int focus = queue[head++];
+            final int fx = focus % windowWidth, fy = focus / windowWidth;
+            final int next = distance[focus] + 1, exits = grid.exits(left+fx, top+fy);
+            // Exits keep us on the map, the bounds keep us in the window
+            if ((exits & Grid.UP) != 0 && fy > 0) tail = visit(focus-windowWidth, next, tail);
+            if ((exits & Grid.DOWN) != 0 && fy+1 < windowHeight) tail = visit(focus+windowWidth, next, tail);
+            if ((exits & Grid.LEFT) != 0 && fx > 0) tail = visit(focus-1, next, tail);
+            if ((exits & Grid.RIGHT) != 0 && fx+1 < windowWidth) tail = visit(focus+1, next, tail);
+        }
+        farthest = queue[tail-1]; // Searched in order of distance, so the last one is the farthest
+    }
+
+    private int visit(int index, int value, int tail) {
+        if (stamp[index] == generation) return tail;
+        stamp[index] = generation;
+        distance[index] = value;
+        queue[tail] = index;
+        return tail+1;
+    }
+
+    /**
+     * @return Distance in moves from the tile to the origin, or -1 if it can't be reached within the window
+     */
+    int distance(int x, int y) {
+        final int wx = x-left, wy = y-top;
+        if (origin == -1 || wx < 0 || wy < 0 || wx >= windowWidth || wy >= windowHeight) return -1;
+        final int index = wy*windowWidth + wx;
+        return stamp[index] == generation ? distance[index] : -1;
+    }
+
+    /**
+     * Gets the move that takes a tile one step closer to the origin
+     * @return The move, a {@link Direction}, or Direction.NONE if the tile is the origin or can't reach it
+     */
+    int downhill(int x, int y) {
+        final int here = distance(x, y);
+        if (here <= 0) return Direction.NONE;
+        final int exits = grid.exits(x, y);
+        if ((exits & Grid.UP) != 0 && distance(x, y-1) == here-1) return Direction.UP;
+        if ((exits & Grid.DOWN) != 0 && distance(x, y+1) == here-1) return Direction.DOWN;
+        if ((exits & Grid.LEFT) != 0 && distance(x-1, y) == here-1) return Direction.LEFT;
+        return Direction.RIGHT; // Has to be, something's closer
+    }
+
+    /** @return Grid x of the reachable tile farthest from the origin */
+    int getFarthestX() { return left + farthest % windowWidth; }
+
+    /** @return Grid y of the reachable tile farthest from the origin */
+    int getFarthestY() { return top + farthest / windowWidth; }
+}
@@ -1,32 +1,24 @@
 package net.keinr.pacman;
 
-import javafx.scene.input.KeyCode;
-import javafx.scene.shape.Rectangle;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
-import javafx.scene.image.ImageView;
-// import javafx.scene.image.Image;
-import javafx.scene.shape.Arc;
-import javafx.scene.shape.ArcType;
-// import javafx.scene.Node;
-
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.io.FileInputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
 import java.nio.file.NoSuchFileException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.List;
-import java.util.Deque;
-import java.util.ArrayList;
-import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 import net.keinr.util.TimedThread;
 import static net.keinr.util.Ansi.YELLOW;
+import static net.keinr.pacman.Direction.UP;
+import static net.keinr.pacman.Direction.DOWN;
+import static net.keinr.pacman.Direction.LEFT;
+import static net.keinr.pacman.Direction.RIGHT;
 
 // Debug imports
 import static net.keinr.util.Ansi.RED;
@@ -36,11 +28,14 @@ import static net.keinr.util.Ansi.RESET;
 import static net.keinr.util.Ansi.BR_GREEN;
 import static net.keinr.util.Ansi.BR_BLUE;
 import static net.keinr.util.Ansi.BR_RED;
-import static net.keinr.pacman.Main.logDebug;
-import static net.keinr.pacman.Main.fDebug;
+import static net.keinr.pacman.Log.logDebug;
+import static net.keinr.pacman.Log.logPhase;
+import static net.keinr.pacman.Log.fDebug;
 
 /**
- * Deals with all logic related things
+ * Deals with all logic related things.
+ * Game state is kept as plain data so that the simulation can run
+ * without a display; a {@link View} is told about changes.
  * @author Orion Musselman (KeinR)
  */
 
@@ -58,179 +53,206 @@ class Engine {
     private static final int POINTS_PER_SUPER_DOT = 10; // How many points the player gets for each super dot picked up
     private static final int POINTS_PER_GHOST = 50; // How many points the player gets for each ghost murdered
     private static final String MAP_SOURCE = "resources/images/map.png"; // Source of the map. If you choose to use an alternate one, make sure your color values are correct
-    private static final Color DOT_COLOR = Color.YELLOW; // Normal dot color
-    private static final Color DOT_COLOR_SUPER = Color.CYAN; // Super dot color
     private static final int JAW_SPEED = (int)(0.5*TICK_INTERVAL); // How fast the player's jaw opens and closes
     private static final int JAW_MAX = 40; // Max degrees the player's jaw can open
     private static final int SUPER_MODE_LENGTH = 10000; // How long a player's super mode lasts
     private static final int SUPER_SPAWN_CHANCE = 3; // % chance that a super mode initializer will spawn on a tile
+    private static final int MAX_CATCH_UP_TICKS = 5; // How many late ticks can be run back to back before they're dropped
+    private static final int PARALLEL_GHOSTS = 64; // Ghost count at which ghost updates are spread across cores. The game plays out the same either way
 
     // Touch at your own risk
-    private static final int WALL_DEC = 255; // Wall tile color representation in base 10
-    private static final int PSP_DEC = 53504; // Player spawn point color representation in base 10
-    private static final int ESP_DEC = 16711684; // Enemy spawn point color representation in base 10
-    private static final int MAP_M = 20; // X/Y-length of tile matrix
-    private static final double RATIO = 400/MAP_M; // Grid to pixels ratio
-    private static final int PATHFINDING_ITER_CAP = 1000; // Absolute max A* iterations used to find a valid path to the target from ghost.
-    private static final double ENTITY_RADIUS = RATIO/3; // radius of player & ghosts
+    static final double RATIO = 20; // Grid to pixels ratio; the map's size comes from its image
+    private static final int PATHFINDING_ITER_CAP = 1000; // Absolute max A* iterations used to find a valid path to the target from ghost. Big maps search hierarchically instead, which needs no cap
+    private static final int PATH_CACHE_SIZE = 256; // Max search results to remember
+    private static final int NEXT_HOP_TABLE_LIMIT = 2048; // Max open tiles for precomputing all paths; the table takes 3 bytes per pair of tiles
+    private static final int PLAYER_FIELD_RADIUS = 64; // How far the shared distance field reaches from the player, in tiles. Chasers farther out search instead
+    private static final int MOVE_QUEUE_SIZE = Math.max(PATHFINDING_ITER_CAP, NEXT_HOP_TABLE_LIMIT); // Longer than any path a ghost can be given
+    static final double ENTITY_RADIUS = RATIO/3; // radius of player & ghosts
+
+    // Inputs for keyPressed, besides the directions
+    static final int PAUSE = 4;
+    static final int OTHER_KEY = 5; // Any key that isn't bound to anything. Still starts a game or unpauses
 
     // Cached calculations
     private static final double GHOST_SPEED_X2 = GHOST_SPEED*2;
-    private static final double HALF_RATIO = RATIO/2;
-    private static final double SIXTH_RATIO = RATIO/6;
+    static final double HALF_RATIO = RATIO/2;
+    static final double SIXTH_RATIO = RATIO/6;
 
     private static final TimedThread cycleControl = new TimedThread("cycle", TICK_INTERVAL, () -> cycle());
     private static final Random random = new Random();
     private static Tile[] enemySpawnpoints, playerSpawnpoints;
-    private static Tile[][] map = new Tile[MAP_M][MAP_M];
+    private static int mapWidth, mapHeight; // In tiles
+    private static ChunkedMap<Tile> map = new ChunkedMap<Tile>(0, 0); // Dot & spawn info for open tiles
+    private static Grid grid; // Walls & exits, for everything that moves
     private static Tile[] openTiles;
-    private static Ghost[] ghosts = new Ghost[GHOST_COUNT];
+    private static long[] collected = new long[0]; // Bit per tile (y*mapWidth + x), set once its dot is picked up
+    private static PathCache pathCache;
+    private static NextHopTable hopTable;
+    private static DistanceField playerField; // Distance of the tiles around the player from it
+    private static Ghost[] ghosts = new Ghost[0];
+    private static SpatialIndex ghostTiles; // Which tile each ghost is in
+    private static int[] nearbyGhosts; // Scratch space for ghostTiles queries
+    private static int parallelGhosts = PARALLEL_GHOSTS;
 
     private static volatile boolean gameOver = true, paused = false, loaded = false;
     private static int score, highScore;
+    private static long tickCount; // Number of ticks the game has been running for
+    private static long cycleCount; // Number of cycles since loading, including paused & game over ones. Key presses are stamped with it
+    private static final Queue<Integer> pendingKeys = new ConcurrentLinkedQueue<Integer>(); // Pressed, but not applied yet
+    private static Path recordingFile; // Where to save the recording, or null if not recording
+    private static long recordingSeed;
+    private static Recording recording;
+    private static View view = View.NONE;
 
     // Player related stuff
-    private static volatile KeyCode playerDirection, queuedPlayerDirection;
-    private static final Arc playerDisplay = new Arc(-10, -10, ENTITY_RADIUS, ENTITY_RADIUS, 40, 300);
+    private static volatile int playerDirection = Direction.NONE, queuedPlayerDirection = Direction.NONE;
+    private static double playerX = -10, playerY = -10; // Center of the player, in pixels
     private static boolean openingJaw = false, superMode = false;
     private static double mouthOpenSS = 10;
     private static int superModeDuration = 0;
 
-    static void setup() {
-        Interface.setOnKeyPressed(e -> {
-            logDebug(BR_RED+"Key 1"+RESET);
-            if (!gameOver) {
-                logDebug(BR_RED+"Key 2"+RESET);
-                logDebug(playerDirection +" =? "+e.getCode()+", paused = "+paused);
-                if (paused) {
-                    logDebug(BR_RED+"Key A"+RESET);
-                    paused = false;
-                    Interface.setUnpaused();
-                } else if (playerDirection != e.getCode()) {
-                    logDebug(BR_RED+"Key B"+RESET);
-                    switch (e.getCode()) {
-                        case UP:
-                            if (playerDirection == KeyCode.DOWN) {
-                                playerDirection = e.getCode();
-                            } else {
-                                queuedPlayerDirection = e.getCode();
-                            }
-                            break;
-                        case DOWN:
-                            if (playerDirection == KeyCode.UP) {
-                                playerDirection = e.getCode();
-                            } else {
-                                queuedPlayerDirection = e.getCode();
-                            }
-                            break;
-                        case LEFT:
-                            if (playerDirection == KeyCode.RIGHT) {
-                                playerDirection = e.getCode();
-                            } else {
-                                queuedPlayerDirection = e.getCode();
-                            }
-                            break;
-                        case RIGHT:
-                            if (playerDirection == KeyCode.LEFT) {
-                                playerDirection = e.getCode();
-                            } else {
-                                queuedPlayerDirection = e.getCode();
-                            }
-                            break;
-                        case P:
-                            logDebug(BR_RED+"Pause pressed"+RESET);
-                            if (!paused) {
-                                paused = true;
-                                Interface.setPaused();
-                            }
-                            break;
-                        default: logDebug("Bad key");
-                    }
-                }
-            } else {
-                start();
-            }
-        });
+    /**
+     * Loads the game and starts the game cycle
+     * @param display Where state changes should be sent
+     */
+    static void setup(View display) {
+        load(display);
+        cycleControl.setFixedRate(true);
+        cycleControl.setMaxCatchUp(MAX_CATCH_UP_TICKS);
+        cycleControl.start();
+    }
+
+    /**
+     * Loads the map, ghosts & save data without starting the game cycle.
+     * Used directly when running headless, where {@link #tick()} is called manually.
+     * @param display Where state changes should be sent
+     */
+    static void load(View display) {
+        load(display, GHOST_COUNT);
+    }
+
+    /**
+     * Loads the game with a set number of ghosts, without starting the game cycle
+     * @param display Where state changes should be sent
+     * @param ghostCount How many ghosts to create
+     */
+    static void load(View display, int ghostCount) {
+        view = display;
+        gameOver = true; // Any game in progress is for the old map & ghosts
+        paused = false;
+        // Per-run state goes back to how it starts out, so a reload plays out the same as the first load
+        cycleCount = 0;
+        tickCount = 0;
+        score = 0;
+        playerDirection = Direction.NONE;
+        queuedPlayerDirection = Direction.NONE;
+        playerX = -10;
+        playerY = -10;
+        openingJaw = false;
+        superMode = false;
+        mouthOpenSS = 10;
+        superModeDuration = 0;
+        pendingKeys.clear();
+        if (recordingFile != null) {
+            random.setSeed(recordingSeed); // So every load can be replayed, not just the first
+            recording = new Recording(recordingSeed, ghostCount);
+        }
+        final long start = System.nanoTime();
+
+        // Save data doesn't depend on anything, so it's read while the map loads.
+        // Games without a display (headless, replays, benchmarks) aren't the player's, so they leave it alone
+        final CompletableFuture<Integer> savedHighScore = display == View.NONE
+            ? CompletableFuture.completedFuture(-1)
+            : CompletableFuture.supplyAsync(Engine::readHighScore);
 
         // Load map
         try {
-            final BufferedImage image = ImageIO.read(Resource.getFile("map"));
-
-            List<Tile> enemySpawnpointsPrototype = new ArrayList<Tile>();
-            List<Tile> playerSpawnpointsPrototype = new ArrayList<Tile>();
-            List<Tile> openTilesPrototype = new ArrayList<Tile>();
-
-            for(int y = 0; y < map[0].length; y++) {
-                for (int x = 0; x < map.length; x++) {
-                    int value = image.getRGB(x, y) + 16777216; // Remove alpha value
-                    if (value != WALL_DEC) {
-                        map[x][y] = new Tile(x, y);
-                        switch (value) { // Get sections
-                            case ESP_DEC: // Enemy sp
-                                enemySpawnpointsPrototype.add(map[x][y]);
-                                break;
-                            case PSP_DEC: // Player sp
-                                playerSpawnpointsPrototype.add(map[x][y]);
-                                break;
-                        }
-                        openTilesPrototype.add(map[x][y]);
-                    } else {
-                        Rectangle rect = new Rectangle(x*RATIO, y*RATIO, RATIO, RATIO);
-                        // String hex = Integer.toString(value, 16);
-                        // hex = "0".repeat(6-hex.length())+hex;
-                        rect.getStyleClass().add("wall");
-                        Interface.addBackground(rect);
-                    }
-                }
+            long phase = System.nanoTime();
+            final CompiledMap compiled = CompiledMap.load(Paths.get(MAP_SOURCE));
+            logPhase("Map load", phase);
+            grid = compiled.grid;
+
+            // The next hop table (or the cluster graph, for maps too big for one) only needs the grid,
+            // so it's loaded while the tiles are made
+            final Grid tableGrid = grid;
+            final byte[] mapHash = compiled.hash;
+            final boolean bigMap = compiled.openTiles.length > NEXT_HOP_TABLE_LIMIT;
+            final CompletableFuture<NextHopTable> table = bigMap
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.supplyAsync(() -> {
+                    final long tableStart = System.nanoTime();
+                    final NextHopTable loadedTable = NextHopTable.load(tableGrid, Paths.get(MAP_SOURCE), mapHash);
+                    logPhase("Next hop table", tableStart);
+                    return loadedTable;
+                });
+            final CompletableFuture<ClusterGraph> clusters = !bigMap
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.supplyAsync(() -> {
+                    final long graphStart = System.nanoTime();
+                    final ClusterGraph graph = ClusterGraph.build(tableGrid);
+                    logPhase("Cluster graph", graphStart);
+                    return graph;
+                });
+
+            phase = System.nanoTime();
+            mapWidth = compiled.width;
+            mapHeight = compiled.height;
+            map = new ChunkedMap<Tile>(mapWidth, mapHeight);
+            collected = new long[(mapWidth*mapHeight+63)/64];
+
+            openTiles = new Tile[compiled.openTiles.length];
+            for (int i = 0; i < openTiles.length; i++) {
+                final int index = compiled.openTiles[i];
+                openTiles[i] = new Tile(index % mapWidth, index / mapWidth);
+                map.set(openTiles[i].x, openTiles[i].y, openTiles[i]);
             }
-            enemySpawnpoints = enemySpawnpointsPrototype.toArray(Tile[]::new);
-            playerSpawnpoints = playerSpawnpointsPrototype.toArray(Tile[]::new);
-            openTiles = openTilesPrototype.toArray(Tile[]::new);
-
-            // Add borders
-            for (int x = 0; x < MAP_M; x++) {
-                for (int y = 0; y < MAP_M; y++) {
-                    if (map[x][y] != null) {
-                        if (x+1 < MAP_M && map[x+1][y] == null) {
-                            Rectangle rect = new Rectangle(x*RATIO+RATIO, y*RATIO, RATIO*0.1, RATIO);
-                            rect.getStyleClass().add("wallBorder");
-                            Interface.addBackground(rect);
-                        }
-                        if (x-1 >= 0 && map[x-1][y] == null) {
-                            Rectangle rect = new Rectangle(x*RATIO-RATIO*0.1, y*RATIO, RATIO*0.1, RATIO);
-                            rect.getStyleClass().add("wallBorder");
-                            Interface.addBackground(rect);
-                        }
-                        if (y+1 < MAP_M && map[x][y+1] == null) {
-                            Rectangle rect = new Rectangle(x*RATIO, y*RATIO+RATIO, RATIO, RATIO*0.1);
-                            rect.getStyleClass().add("wallBorder");
-                            Interface.addBackground(rect);
-                        }
-                        if (y-1 >= 0 && map[x][y-1] == null) {
-                            Rectangle rect = new Rectangle(x*RATIO, y*RATIO-RATIO*0.1, RATIO, RATIO*0.1);
-                            rect.getStyleClass().add("wallBorder");
-                            Interface.addBackground(rect);
-                        }
-                    }
-                }
+            playerSpawnpoints = new Tile[compiled.playerSpawnpoints.length];
+            for (int i = 0; i < playerSpawnpoints.length; i++) {
+                final int index = compiled.playerSpawnpoints[i];
+                playerSpawnpoints[i] = map.get(index % mapWidth, index / mapWidth);
             }
+            enemySpawnpoints = new Tile[compiled.enemySpawnpoints.length];
+            for (int i = 0; i < enemySpawnpoints.length; i++) {
+                final int index = compiled.enemySpawnpoints[i];
+                enemySpawnpoints[i] = map.get(index % mapWidth, index / mapWidth);
+            }
+            logPhase("Tiles", phase);
+
+            playerField = new DistanceField(grid, PLAYER_FIELD_RADIUS);
+            hopTable = table.join();
+            final ClusterGraph graph = clusters.join();
+            pathCache = new PathCache(PATH_CACHE_SIZE, mapWidth, graph != null ? () -> new HierarchicalPathfinder(graph) : () -> new Pathfinder(grid));
         } catch (IOException e) {
             e.printStackTrace();
         }
 
         // Initialize ghost array
+        ghosts = new Ghost[ghostCount];
         for (int i = 0; i < ghosts.length; i++) {
-            ghosts[i] = new Ghost();
+            ghosts[i] = new Ghost(i);
         }
+        ghostTiles = new SpatialIndex(mapWidth, mapHeight, ghostCount);
+        nearbyGhosts = new int[ghostCount];
 
-        playerDisplay.setId("player");
-        playerDisplay.setType(ArcType.ROUND);
-        Interface.addEntity(playerDisplay);
+        final long phase = System.nanoTime();
+        view.mapLoaded();
+        logPhase("View setup", phase);
 
-        // Load save data
+        final int saved = savedHighScore.join();
+        if (saved != -1) {
+            highScore = saved;
+            view.setHighScore(highScore);
+        }
+
+        view.flush();
+        loaded = true;
+        logPhase("Engine load", start);
+    }
+
+    /** @return The saved high score, or -1 if there isn't one */
+    private static int readHighScore() {
         try {
-            highScore = Integer.parseInt(Files.readString(SAVE_DATA_PATH, StandardCharsets.UTF_8));
-            Interface.setHighScore(highScore);
+            return Integer.parseInt(Files.readString(SAVE_DATA_PATH, StandardCharsets.UTF_8));
         } catch (NoSuchFileException e) {
             // It's fine, we'll make a new one later
         } catch (IOException e) {
@@ -243,60 +265,143 @@ class Engine {
                 ex.printStackTrace();
             }
         }
+        return -1;
+    }
 
-        cycleControl.start();
-        loaded = true;
+    /**
+     * Handles a key press from the player. Safe to call from any thread; the key is
+     * applied at the start of the next cycle, so it always lands between ticks.
+     * @param code The key that was pressed: a {@link Direction}, {@link #PAUSE} or {@link #OTHER_KEY}
+     */
+    static void keyPressed(int code) {
+        pendingKeys.add(code);
+    }
+
+    private static void applyKey(int code) {
+        logDebug(BR_RED+"Key 1"+RESET);
+        if (!gameOver) {
+            logDebug(BR_RED+"Key 2"+RESET);
+            logDebug("{} =? {}, paused = {}", playerDirection, code, paused);
+            if (paused) {
+                logDebug(BR_RED+"Key A"+RESET);
+                paused = false;
+                view.setUnpaused();
+            } else if (playerDirection != code) {
+                logDebug(BR_RED+"Key B"+RESET);
+                switch (code) {
+                    case UP:
+                        if (playerDirection == DOWN) {
+                            playerDirection = code;
+                        } else {
+                            queuedPlayerDirection = code;
+                        }
+                        break;
+                    case DOWN:
+                        if (playerDirection == UP) {
+                            playerDirection = code;
+                        } else {
+                            queuedPlayerDirection = code;
+                        }
+                        break;
+                    case LEFT:
+                        if (playerDirection == RIGHT) {
+                            playerDirection = code;
+                        } else {
+                            queuedPlayerDirection = code;
+                        }
+                        break;
+                    case RIGHT:
+                        if (playerDirection == LEFT) {
+                            playerDirection = code;
+                        } else {
+                            queuedPlayerDirection = code;
+                        }
+                        break;
+                    case PAUSE:
+                        logDebug(BR_RED+"Pause pressed"+RESET);
+                        if (!paused) {
+                            paused = true;
+                            view.setPaused();
+                        }
+                        break;
+                    default: logDebug("Bad key");
+                }
+            }
+        } else {
+            start();
+        }
     }
 
     static void start() {
         if (loaded) {
             // Reset map
-            for (int x = 0; x < MAP_M; x++) {
-                for (int y = 0; y < MAP_M; y++) {
-                    if (map[x][y] != null) map[x][y].reset();
-                }
-            }
+            Arrays.fill(collected, 0);
+            view.resetDots();
 
             // Spawn ghosts
             for (Ghost ghost : ghosts) ghost.spawn();
 
             // Spawn player
             Tile spawnpoint = playerSpawnpoints[random.nextInt(playerSpawnpoints.length)];
-            map[spawnpoint.x][spawnpoint.y].setCollected(false);
-            playerDisplay.setCenterX(spawnpoint.x*RATIO+HALF_RATIO);
-            playerDisplay.setCenterY(spawnpoint.y*RATIO+HALF_RATIO);
+            spawnpoint.setCollected(false);
+            playerX = spawnpoint.x*RATIO+HALF_RATIO;
+            playerY = spawnpoint.y*RATIO+HALF_RATIO;
             logDebug("Added player");
 
-            playerDirection = KeyCode.JAPANESE_KATAKANA; // Setting it to that initially because it looks like Japanese Katana
-            Interface.setStartGame();
+            playerDirection = Direction.NONE; // Stays put until the first key press
+            view.setStartGame();
 
             score = 0;
-            Interface.setScore(0);
+            view.setScore(0);
+            view.update();
 
             gameOver = false;
+            gameStateEvent(true);
         }
     }
 
     static void stop() {
         // Check protects against instances where two ghosts hit the player at the same time
         if (!gameOver) {
-            Interface.setGameOver();
+            view.setGameOver();
             save();
             logDebug("Game over, so sad...");
+            logDebug("Cycle ticks: {}, overruns: {}, missed: {}", cycleControl.getTicks(), cycleControl.getOverruns(), cycleControl.getMissedTicks());
+            logDebug(() -> "Path cache size: "+pathCache.size()+", hits: "+pathCache.getHits()+", merged: "+pathCache.getMerged()+
+                ", misses: "+pathCache.getMisses()+", evictions: "+pathCache.getEvictions()); // Getters lock, so only call them if logging
             gameOver = true;
+            gameStateEvent(false);
+        }
+    }
+
+    private static void gameStateEvent(boolean started) {
+        final Events.GameState event = new Events.GameState();
+        if (event.shouldCommit()) {
+            event.started = started;
+            event.score = score;
+            event.commit();
+        }
+    }
+
+    private static void supermodeEvent(boolean entered) {
+        final Events.Supermode event = new Events.Supermode();
+        if (event.shouldCommit()) {
+            event.entered = entered;
+            event.commit();
         }
     }
 
     private static void addScore(int value) {
         score += value;
-        Interface.setScore(score);
+        view.setScore(score);
         if (score > highScore) {
             highScore = score;
-            Interface.setHighScore(highScore);
+            view.setHighScore(highScore);
         }
     }
 
     private static void save() {
+        if (view == View.NONE) return; // Not the player's game, see load
         try {
             Files.write(SAVE_DATA_PATH, String.valueOf(highScore).getBytes());
         } catch (IOException e) {
@@ -304,65 +409,101 @@ class Engine {
         }
     }
 
-    private static void warn(String message) {
+    static void warn(String message) {
         System.out.println("["+YELLOW+"warning"+RESET+"] "+message);
     }
 
+    /**
+     * Whether the game is waiting for a key press to (re)start
+     * @return true if there's no game running
+     */
+    static boolean isGameOver() { return gameOver; }
+
+    /**
+     * Reseeds the random number generator used for the map, spawns & ghost targets
+     * @param seed The new seed
+     */
+    static void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * Sets how many ghosts there need to be before ghost updates run in parallel
+     * @param count The ghost count, or Integer.MAX_VALUE to always run them on the cycle thread
+     */
+    static void setParallelGhosts(int count) {
+        parallelGhosts = count;
+    }
+
+    /**
+     * Runs one game cycle on the caller's thread. Used when running headless.
+     */
+    static void tick() {
+        cycle();
+    }
+
     private static void cycle() {
-        if (!paused && !gameOver) {
+        cycleCount++;
+        boolean pressed = false;
+        for (Integer code = pendingKeys.poll(); code != null; code = pendingKeys.poll()) {
+            if (recording != null) recording.addKey(cycleCount, code);
+            applyKey(code);
+            pressed = true;
+        }
 
-            final int x = (int)(playerDisplay.getCenterX()/RATIO);
-            final int y = (int)(playerDisplay.getCenterY()/RATIO);
+        final boolean running = !paused && !gameOver;
+        if (running) {
+            final Events.Tick event = new Events.Tick();
+            event.begin();
+            final long tickStart = Profiler.start();
+            tickCount++;
+
+            long phaseStart = tickStart;
+            final int x = (int)(playerX/RATIO);
+            final int y = (int)(playerY/RATIO);
+            final int exits = grid.exits(x, y);
             double dist;
             boolean moved = false;
             switch (playerDirection) {
                 case UP:
-                    dist = playerDisplay.getCenterY()/RATIO - y;
-                    if (y-1 >= 0 && (map[x][y-1] != null || dist > 0.5)) {
+                    dist = playerY/RATIO - y;
+                    if ((exits & Grid.UP) != 0 || (y-1 >= 0 && dist > 0.5)) {
                         moved = true;
-                        playerDisplay.setCenterY(playerDisplay.getCenterY()-PLAYER_SPEED);
-                        if (dist > DOT_COLLECTION_DIST && y < MAP_M) {
-                            map[x][y].setCollected(true);
+                        playerY -= PLAYER_SPEED;
+                        if (dist > DOT_COLLECTION_DIST && y < mapHeight) {
+                            map.get(x, y).setCollected(true);
                         }
                     } else recenterPlayer(x, y);
-                    playerDisplay.setStartAngle(90+mouthOpenSS);
-                    playerDisplay.setLength(360-(mouthOpenSS*2));
                     break;
                 case DOWN:
-                    dist = playerDisplay.getCenterY()/RATIO - y;
-                    if (y+1 < MAP_M && (map[x][y+1] != null || dist < 0.5)) {
+                    dist = playerY/RATIO - y;
+                    if ((exits & Grid.DOWN) != 0 || (y+1 < mapHeight && dist < 0.5)) {
                         moved = true;
-                        playerDisplay.setCenterY(playerDisplay.getCenterY()+PLAYER_SPEED);
+                        playerY += PLAYER_SPEED;
                         if (dist > DOT_COLLECTION_DIST && y >= 0) {
-                            map[x][y].setCollected(true);
+                            map.get(x, y).setCollected(true);
                         }
                     } else recenterPlayer(x, y);
-                    playerDisplay.setStartAngle(270+mouthOpenSS);
-                    playerDisplay.setLength(360-(mouthOpenSS*2));
                     break;
                 case LEFT:
-                    dist = playerDisplay.getCenterX()/RATIO - x;
-                    if (x-1 >= 0 && (map[x-1][y] != null || dist > 0.5)) {
+                    dist = playerX/RATIO - x;
+                    if ((exits & Grid.LEFT) != 0 || (x-1 >= 0 && dist > 0.5)) {
                         moved = true;
-                        playerDisplay.setCenterX(playerDisplay.getCenterX()-PLAYER_SPEED);
-                        if (dist > DOT_COLLECTION_DIST && x < MAP_M) {
-                            map[x][y].setCollected(true);
+                        playerX -= PLAYER_SPEED;
+                        if (dist > DOT_COLLECTION_DIST && x < mapWidth) {
+                            map.get(x, y).setCollected(true);
                         }
                     } else recenterPlayer(x, y);
-                    playerDisplay.setStartAngle(180+mouthOpenSS);
-                    playerDisplay.setLength(360-(mouthOpenSS*2));
                     break;
                 case RIGHT:
-                    dist = playerDisplay.getCenterX()/RATIO - x;
-                    if (x+1 < MAP_M && (map[x+1][y] != null || dist < 0.5)) {
+                    dist = playerX/RATIO - x;
+                    if ((exits & Grid.RIGHT) != 0 || (x+1 < mapWidth && dist < 0.5)) {
                         moved = true;
-                        playerDisplay.setCenterX(playerDisplay.getCenterX()+PLAYER_SPEED);
+                        playerX += PLAYER_SPEED;
                         if (dist > DOT_COLLECTION_DIST && x >= 0) {
-                            map[x][y].setCollected(true);
+                            map.get(x, y).setCollected(true);
                         }
                     } else recenterPlayer(x, y);
-                    playerDisplay.setStartAngle(mouthOpenSS);
-                    playerDisplay.setLength(360-(mouthOpenSS*2));
                     break;
                 // case P: // Do nothing
             }
@@ -381,22 +522,22 @@ class Engine {
             } else {
                 mouthOpenSS = JAW_MAX;
             }
-            if (queuedPlayerDirection != null) {
-                double xx = playerDisplay.getCenterX()/RATIO - x;
-                double yy = playerDisplay.getCenterY()/RATIO - y;
+            if (queuedPlayerDirection != Direction.NONE) {
+                double xx = playerX/RATIO - x;
+                double yy = playerY/RATIO - y;
                 if (xx > 0.485 && xx < 0.515 && yy > 0.485 && yy < 0.515) {
                     boolean canChangeDirection = false;
                     switch (queuedPlayerDirection) {
-                        case UP: canChangeDirection = y-1 >= 0 && map[x][y-1] != null; break;
-                        case DOWN: canChangeDirection = y+1 < MAP_M && map[x][y+1] != null; break;
-                        case LEFT: canChangeDirection = x-1 >= 0 && map[x-1][y] != null; break;
-                        case RIGHT: canChangeDirection = x+1 < MAP_M && map[x+1][y] != null; break;
+                        case UP: canChangeDirection = (exits & Grid.UP) != 0; break;
+                        case DOWN: canChangeDirection = (exits & Grid.DOWN) != 0; break;
+                        case LEFT: canChangeDirection = (exits & Grid.LEFT) != 0; break;
+                        case RIGHT: canChangeDirection = (exits & Grid.RIGHT) != 0; break;
                     }
                     if (canChangeDirection) {
                         // Re-center & switch to next move
                         recenterPlayer(x, y);
                         playerDirection = queuedPlayerDirection;
-                        queuedPlayerDirection = null;
+                        queuedPlayerDirection = Direction.NONE;
                     } else {
                         logDebug("Queued move denied");
                     }
@@ -404,8 +545,18 @@ class Engine {
                     // logDebug("Denied - ("+xx+", "+yy+")");
                 }
             }
-            for (Ghost ghost : ghosts) ghost.move();
+            playerField.update((int)(playerX/RATIO), (int)(playerY/RATIO));
+            Profiler.end(Profiler.PLAYER, phaseStart);
+
+            phaseStart = Profiler.start();
+            moveGhosts();
+            Profiler.end(Profiler.GHOSTS, phaseStart);
 
+            phaseStart = Profiler.start();
+            checkCollisions();
+            Profiler.end(Profiler.COLLISIONS, phaseStart);
+
+            phaseStart = Profiler.start();
             if (superMode) {
                 if (superModeDuration <= 0) {
                     exitSupermode();
@@ -414,6 +565,116 @@ class Engine {
                     superModeDuration -= TICK_INTERVAL;
                 }
             }
+            Profiler.end(Profiler.SUPERMODE, phaseStart);
+
+            phaseStart = Profiler.start();
+            view.update();
+            view.flush();
+            Profiler.end(Profiler.VIEW, phaseStart);
+            Profiler.endTick(tickStart, TICK_INTERVAL);
+            event.end();
+            if (event.shouldCommit()) {
+                event.tick = tickCount;
+                event.ghosts = ghosts.length;
+                event.commit();
+            }
+        } else if (pressed) {
+            view.flush();
+        }
+
+        if (recording != null) {
+            recording.addChecksum(checksum());
+            if (running && gameOver) saveRecording(); // Game just ended
+        }
+    }
+
+    /**
+     * Records the game from the next load on, so it can be replayed with {@link Replay}.
+     * The recording is saved whenever a game ends.
+     * @param file Where to save the recording
+     * @param seed Seed to load with
+     */
+    static void record(Path file, long seed) {
+        recordingFile = file;
+        recordingSeed = seed;
+    }
+
+    private static void saveRecording() {
+        try {
+            recording.write(recordingFile);
+            logDebug("Saved recording of {} cycles to {}", recording.getCycles(), recordingFile);
+        } catch (IOException e) {
+            warn("Could not save recording: "+e.toString());
+        }
+    }
+
+    /**
+     * Hashes everything that decides how the game plays out, for checking that replays match
+     * @return The checksum
+     */
+    static long checksum() {
+        long hash = mix(cycleCount, tickCount);
+        hash = mix(hash, Double.doubleToLongBits(playerX));
+        hash = mix(hash, Double.doubleToLongBits(playerY));
+        hash = mix(hash, Double.doubleToLongBits(mouthOpenSS));
+        hash = mix(hash, playerDirection);
+        hash = mix(hash, queuedPlayerDirection);
+        hash = mix(hash, score);
+        hash = mix(hash, superModeDuration);
+        hash = mix(hash, (gameOver ? 1 : 0) | (paused ? 2 : 0) | (superMode ? 4 : 0) | (openingJaw ? 8 : 0));
+        for (Ghost ghost : ghosts) {
+            hash = mix(hash, Double.doubleToLongBits(ghost.centerX));
+            hash = mix(hash, Double.doubleToLongBits(ghost.centerY));
+            hash = mix(hash, ghost.currentDirection);
+            hash = mix(hash, ghost.trackingTime);
+            hash = mix(hash, (ghost.alive ? 1 : 0) | (ghost.scared ? 2 : 0) | (ghost.changeDirClear ? 4 : 0));
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return Long.rotateLeft((hash ^ value) * 0x9e3779b97f4a7c15L, 31);
+    }
+
+    // Ghosts are updated in phases. The parallel ones only write to the ghost's own fields, and only read
+    // state that stays put until the sequential one, so it doesn't matter what order the ghosts run in.
+    private static void moveGhosts() {
+        final boolean parallel = ghosts.length >= parallelGhosts;
+        forEachGhost(parallel, Ghost::sense, Profiler.GHOST_SENSE);
+        for (Ghost ghost : ghosts) {
+            final long start = Profiler.start();
+            ghost.decide();
+            Profiler.end(Profiler.GHOST_DECIDE, start);
+        }
+        forEachGhost(parallel, Ghost::plan, Profiler.GHOST_PLAN);
+    }
+
+    private static void forEachGhost(boolean parallel, Consumer<Ghost> phase, Histogram profile) {
+        final Consumer<Ghost> run = Profiler.ENABLED ? ghost -> {
+            final long start = Profiler.start();
+            phase.accept(ghost);
+            Profiler.end(profile, start);
+        } : phase;
+        if (parallel) {
+            Arrays.stream(ghosts).parallel().forEach(run);
+        } else {
+            for (Ghost ghost : ghosts) run.accept(ghost);
+        }
+    }
+
+    // Only ghosts in the tiles around the player can be touching it
+    private static void checkCollisions() {
+        final int px = (int)(playerX/RATIO), py = (int)(playerY/RATIO);
+        final int count = ghostTiles.near(px, py, 1, nearbyGhosts);
+        for (int i = 0; i < count; i++) {
+            final Ghost ghost = ghosts[nearbyGhosts[i]];
+            if (
+                (ghostTiles.getX(ghost.index) == px || ghostTiles.getY(ghost.index) == py) &&
+                Math.abs(ghost.centerX-playerX) <= ENTITY_RADIUS+ENTITY_RADIUS &&
+                Math.abs(ghost.centerY-playerY) <= ENTITY_RADIUS+ENTITY_RADIUS
+                ) {
+                ghost.touchedPlayer();
+            }
         }
     }
 
@@ -421,348 +682,304 @@ class Engine {
         logDebug(BR_GREEN+"Entering SUPERMODE"+RESET);
         for (Ghost ghost : ghosts) {
             if (ghost.fleeLocation == null) {
-                ghost.display.setScared();
+                view.setGhostScared(ghost.index);
                 ghost.scared = true;
-                ghost.moveQueue = new ArrayDeque<KeyCode>();
+                ghost.moveQueue.clear();
             }
         }
         superModeDuration = SUPER_MODE_LENGTH;
         superMode = true;
+        supermodeEvent(true);
     }
 
     private static void exitSupermode() {
         for (Ghost ghost : ghosts) {
             if (ghost.fleeLocation == null) {
-                ghost.display.setNormal();
+                view.setGhostNormal(ghost.index);
                 ghost.scared = false;
             }
         }
         superMode = false;
+        supermodeEvent(false);
         logDebug(RED+"EXITED SUPER MODE"+RESET);
     }
 
+    /**
+     * Checks that there are no walls between two tiles on the same row or column
+     * @param x First grid x
+     * @param y First grid y
+     * @param px Second grid x
+     * @param py Second grid y
+     * @return true if the tiles are on the same row or column with nothing in between
+     */
+    static boolean inLineOfSight(int x, int y, int px, int py) {
+        return grid.inLineOfSight(x, y, px, py);
+    }
+
     private static void recenterPlayer(int gridX, int gridY) {
-        playerDisplay.setCenterX((gridX+0.5) * RATIO);
-        playerDisplay.setCenterY((gridY+0.5) * RATIO);
+        playerX = (gridX+0.5) * RATIO;
+        playerY = (gridY+0.5) * RATIO;
+    }
+
+    // Read-only access for views
+
+    static int getMapWidth() { return mapWidth; }
+    static int getMapHeight() { return mapHeight; }
+    static boolean isOpen(int x, int y) { return grid.isOpen(x, y); }
+    static boolean isPowerDot(int x, int y) { return map.get(x, y).isPowerNode; }
+    static boolean isCollected(int x, int y) {
+        final int index = y*mapWidth + x;
+        return (collected[index >> 6] & (1L << index)) != 0;
+    }
+    static long[] copyCollected() { return collected.clone(); }
+    static double getPlayerX() { return playerX; }
+    static double getPlayerY() { return playerY; }
+    static int getPlayerDirection() { return playerDirection; }
+    static double getMouthOpen() { return mouthOpenSS; }
+    static int getGhostCount() { return ghosts.length; }
+    static double getGhostX(int ghost) { return ghosts[ghost].centerX; }
+    static double getGhostY(int ghost) { return ghosts[ghost].centerY; }
+
+    /** @return Where everything is right now */
+    static Snapshot snapshot() {
+        final double[] ghostCenters = new double[ghosts.length*2];
+        for (int i = 0; i < ghosts.length; i++) {
+            ghostCenters[i*2] = ghosts[i].centerX;
+            ghostCenters[i*2+1] = ghosts[i].centerY;
+        }
+        return new Snapshot(tickCount, playerX, playerY, mouthOpenSS, playerDirection, ghostCenters);
     }
 
     private static class Tile {
         private final int x, y;
-        private boolean collected = false;
-        private final Circle display;
         private final int pointValue;
         private final boolean isPowerNode;
         private Tile(int x, int y) {
             this.x = x;
             this.y = y;
-            this.display = new Circle(x*RATIO+HALF_RATIO, y*RATIO+HALF_RATIO, SIXTH_RATIO);
             if (random.nextInt(101) <= SUPER_SPAWN_CHANCE) {
                 this.pointValue = POINTS_PER_SUPER_DOT;
-                this.display.setFill(DOT_COLOR_SUPER);
                 this.isPowerNode = true;
             } else {
                 this.pointValue = POINTS_PER_DOT;
-                this.display.setFill(DOT_COLOR);
                 this.isPowerNode = false;
             }
-            Interface.add(this.display);
         }
         private void setCollected(boolean addScore) {
-            if (!collected) {
+            final int index = y*mapWidth + x;
+            if ((collected[index >> 6] & (1L << index)) == 0) {
                 if (addScore) {
                     addScore(pointValue);
                     if (isPowerNode) enterSupermode();
                 }
-                collected = true;
-                Interface.remove(display);
+                collected[index >> 6] |= 1L << index;
+                view.setDotVisible(x, y, false);
             }
         }
-        private void reset() {
-            collected = false;
-            Interface.remove(this.display); // Making sure that the node isn't already listed
-            Interface.add(this.display);
-        }
     }
 
     private static class Ghost {
-        private Deque<KeyCode> moveQueue;
-        private KeyCode currentDirection;
-        private final GhostSprite display = new GhostSprite();
+        private final MoveQueue moveQueue = new MoveQueue(MOVE_QUEUE_SIZE);
+        private int currentDirection;
+        private final int index;
+        private double centerX = -10, centerY = -10; // Center of the ghost, in pixels
         private boolean alive, changeDirClear, scared;
         private int trackingTime;
         private Tile trackedRandomTile, fleeLocation;
-        private Ghost() {}
+
+        // Passed between the update phases
+        private int tileX, tileY, targetX, targetY; // Tile at the start of the tick, and the one to pathfind to
+        private boolean atCenter, sawPlayer, needsPath, chasing;
+
+        private Ghost(int index) {
+            this.index = index;
+        }
 
         private void spawn() {
             Tile spawnpoint = enemySpawnpoints[random.nextInt(enemySpawnpoints.length)];
-            map[spawnpoint.x][spawnpoint.y].setCollected(false);
-            display.setCenterX(spawnpoint.x*RATIO+HALF_RATIO);
-            display.setCenterY(spawnpoint.y*RATIO+HALF_RATIO);
+            spawnpoint.setCollected(false);
+            centerX = spawnpoint.x*RATIO+HALF_RATIO;
+            centerY = spawnpoint.y*RATIO+HALF_RATIO;
+            ghostTiles.move(index, spawnpoint.x, spawnpoint.y);
             alive = true;
             changeDirClear = true;
             scared = false;
             trackingTime = 0;
             trackedRandomTile = null;
-            currentDirection = KeyCode.P;
-            moveQueue = new ArrayDeque<KeyCode>();
+            currentDirection = Direction.NONE;
+            moveQueue.clear();
         }
 
-        private void move() {
+        // Parallel phase: moves along the current direction, and looks for the player
+        private void sense() {
             final int
-            x = (int)(display.getCenterX()/RATIO),
-            y = (int)(display.getCenterY()/RATIO), // Grid x/y values for ghost
-            pxf = (int)(playerDisplay.getCenterX()/RATIO), // Player x/y grid values
-            pyf = (int)(playerDisplay.getCenterY()/RATIO);
+            x = tileX = (int)(centerX/RATIO),
+            y = tileY = (int)(centerY/RATIO); // Grid x/y values for ghost
             final double speed = fleeLocation == null ? GHOST_SPEED : GHOST_SPEED_X2;
+            final int exits = grid.exits(x, y);
 
             double dist;
             switch (currentDirection) {
                 case UP:
-                    dist = display.getCenterY()/RATIO - y;
-                    if (y-1 >= 0 && (map[x][y-1] != null || dist >= 0.5)) {
-                        display.setCenterY(display.getCenterY()-speed);
+                    dist = centerY/RATIO - y;
+                    if ((exits & Grid.UP) != 0 || (y-1 >= 0 && dist >= 0.5)) {
+                        centerY -= speed;
                     } else {
                         logDebug(RED+"UP denied"+RESET);
                         recenter(x, y);
                     }
                     break;
                 case DOWN:
-                    dist = display.getCenterY()/RATIO - y;
-                    if (y+1 < MAP_M && (map[x][y+1] != null || dist <= 0.5)) {
-                        display.setCenterY(display.getCenterY()+speed);
+                    dist = centerY/RATIO - y;
+                    if ((exits & Grid.DOWN) != 0 || (y+1 < mapHeight && dist <= 0.5)) {
+                        centerY += speed;
                     } else {
                         logDebug(RED+"DOWN denied"+RESET);
                         recenter(x, y);
                     }
                     break;
                 case LEFT:
-                    dist = display.getCenterX()/RATIO - x;
-                    if (x-1 >= 0 && (map[x-1][y] != null || display.getCenterX()/RATIO - (int)(display.getCenterX()/RATIO) >= 0.5)) {
-                        display.setCenterX(display.getCenterX()-speed);
+                    dist = centerX/RATIO - x;
+                    if ((exits & Grid.LEFT) != 0 || (x-1 >= 0 && centerX/RATIO - (int)(centerX/RATIO) >= 0.5)) {
+                        centerX -= speed;
                     } else {
                         logDebug(RED+"LEFT denied"+RESET);
                         recenter(x, y);
                     }
                     break;
                 case RIGHT:
-                    dist = display.getCenterX()/RATIO - x;
-                    if (x+1 < MAP_M && (map[x+1][y] != null || dist <= 0.5)) {
-                        display.setCenterX(display.getCenterX()+speed);
+                    dist = centerX/RATIO - x;
+                    if ((exits & Grid.RIGHT) != 0 || (x+1 < mapWidth && dist <= 0.5)) {
+                        centerX += speed;
                     } else {
                         logDebug(RED+"RIGHT denied"+RESET);
                         recenter(x, y);
                     }
                     break;
-                case P:
+                case Direction.NONE:
                     changeDirClear = true;
                     break;
             }
 
             // Check if ghost has completed a tile move
-            double xx = display.getCenterX()/RATIO - x;
-            double yy = display.getCenterY()/RATIO - y;
-            if (xx > 0.485 && xx < 0.515 && yy > 0.485 && yy < 0.515) {
+            final double xx = centerX/RATIO - x;
+            final double yy = centerY/RATIO - y;
+            atCenter = xx > 0.485 && xx < 0.515 && yy > 0.485 && yy < 0.515;
+            sawPlayer = playerInView(x, y, (int)(playerX/RATIO), (int)(playerY/RATIO));
+        }
 
-                if (changeDirClear) {
+        // Sequential phase: updates the tile index, and picks a target if the ghost needs a new path.
+        // Everything that uses the random generator or the view has to happen here, in ghost order.
+        private void decide() {
+            ghostTiles.move(index, (int)(centerX/RATIO), (int)(centerY/RATIO));
+            needsPath = atCenter && changeDirClear && moveQueue.isEmpty();
+            if (!needsPath) return;
+
+            // Determine what to pathfind to
+            final int x = tileX, y = tileY;
+            int px, py;
+            chasing = false;
+            if (fleeLocation != null) {
+                px = fleeLocation.x;
+                py = fleeLocation.y;
+                if (x == fleeLocation.x && y == fleeLocation.y) {
+                    fleeLocation = null;
+                    view.setGhostNormal(index);
+                    alive = true;
+                }
+            } else if (trackingTime <= 0) { // If the ghost has lost track of the player, have the ghost wander to a random tile
+                if (trackedRandomTile == null || (x == trackedRandomTile.x && y == trackedRandomTile.y)) {
+                    // Search for an open random tile to wander to
+                    trackedRandomTile = openTiles[random.nextInt(openTiles.length)];
+                    logDebug(BLUE+"New target -> ({}, {})"+RESET, trackedRandomTile.x, trackedRandomTile.y);
+                }
+                px = trackedRandomTile.x;
+                py = trackedRandomTile.y;
+                logDebug("Tracking random -> ({}, {})", px, py);
+            } else if (scared) { // If fleeing due to player in super mode
+                logDebug(BR_GREEN+"--SCARED--"+RESET);
+
+                // Flee to the tile furthest from the player
+                trackedRandomTile = map.get(playerField.getFarthestX(), playerField.getFarthestY());
+                logDebug(BLUE+"New flee location -> ({}, {})"+RESET, trackedRandomTile.x, trackedRandomTile.y);
+
+                px = trackedRandomTile.x;
+                py = trackedRandomTile.y;
+            } else {
+                px = (int)(playerX/RATIO);
+                py = (int)(playerY/RATIO);
+                chasing = true;
+            }
 
-                    if (moveQueue.peek() != null) {
-                        changeDirection(x, y);
-                        // logDebug("Polled move |"+currentDirection+"|");
-                    } else {
+            logDebug(BR_GREEN+"Tracking time: {}"+RESET+"; Is scared = {}", trackingTime, scared);
+            targetX = px;
+            targetY = py;
+        }
 
-                        // Determine what to pathfind to
-                        int px, py;
-                        if (fleeLocation != null) {
-                            px = fleeLocation.x;
-                            py = fleeLocation.y;
-                            if (x == fleeLocation.x && y == fleeLocation.y) {
-                                fleeLocation = null;
-                                display.setNormal();
-                                alive = true;
-                            }
-                        } else if (trackingTime <= 0) { // If the ghost has lost track of the player, have the ghost wander to a random tile
-                            if (trackedRandomTile == null || (x == trackedRandomTile.x && y == trackedRandomTile.y)) {
-                                // Search for an open random tile to wander to
-                                trackedRandomTile = openTiles[random.nextInt(openTiles.length)];
-                                logDebug(BLUE+"New target -> ("+trackedRandomTile.x+", "+trackedRandomTile.y+")"+RESET);
+        // Parallel phase: finds a path to the target picked in decide, turns, and keeps track of the player
+        private void plan() {
+            final int x = tileX, y = tileY, px = targetX, py = targetY;
+            if (atCenter) {
+                if (changeDirClear) {
+                    if (needsPath) {
+                        // Get the path: chasers go downhill on the shared player distance field, everyone else
+                        // uses the next hop table if possible, otherwise a search (hierarchical on big maps)
+                        final Events.PathSearch event = new Events.PathSearch();
+                        event.begin();
+                        final int length;
+                        if (chasing && playerField.distance(x, y) != -1) {
+                            event.source = Events.PathSearch.DISTANCE_FIELD;
+                            length = playerField.distance(x, y);
+                            final int steps = length - memoryCap(length);
+                            int cx = x, cy = y;
+                            for (int i = 0; i < steps; i++) {
+                                final int move = playerField.downhill(cx, cy);
+                                moveQueue.add(move);
+                                cx += Direction.dx(move);
+                                cy += Direction.dy(move);
                             }
-                            px = trackedRandomTile.x;
-                            py = trackedRandomTile.y;
-                            logDebug("Tracking random -> ("+px+", "+py+")");
-                        } else if (scared) { // If fleeing due to player in super mode
-                            logDebug(BR_GREEN+"--SCARED--"+RESET);
-
-                            // Check 5 random tiles and flee to the one furthest from the player
-                            Tile current, smallest = null;
-                            int smallestDistance = -420; // Ha lol I did funny number lol I comedic genus ha ha
-                            for (int i = 0; i < 5; i++) {
-                                current = openTiles[random.nextInt(openTiles.length)];
-                                int distance = Math.abs(current.x-pxf)+Math.abs(current.y-pyf);
-                                if (distance > smallestDistance) {
-                                    smallestDistance = distance;
-                                    smallest = current;
-                                }
+                        } else if (hopTable != null && hopTable.distance(x, y, px, py) != -1) {
+                            event.source = Events.PathSearch.NEXT_HOP_TABLE;
+                            length = hopTable.distance(x, y, px, py);
+                            final int steps = length - memoryCap(length);
+                            int cx = x, cy = y;
+                            for (int i = 0; i < steps; i++) {
+                                final int move = hopTable.next(cx, cy, px, py);
+                                moveQueue.add(move);
+                                cx += Direction.dx(move);
+                                cy += Direction.dy(move);
                             }
-                            trackedRandomTile = smallest;
-                            logDebug(BLUE+"New flee location -> ("+trackedRandomTile.x+", "+trackedRandomTile.y+")"+RESET);
-
-                            px = trackedRandomTile.x;
-                            py = trackedRandomTile.y;
                         } else {
-                            px = pxf;
-                            py = pyf;
-                        }
-
-                        logDebug(BR_GREEN+"Tracking time: "+trackingTime+RESET+"; Is scared = "+scared);
-
-                        // Generate A* path
-
-                        final List<Node> openList = new ArrayList<Node>();
-                        boolean[][] closedMap = new boolean[MAP_M][MAP_M];
-                        openList.add(new Node(null, x, y, 0, Math.abs(x-px)+Math.abs(y-px), null));
-                        closedMap[x][y] = true;
-
-                        Node result = null;
-
-                        for (int iterations = 0; openList.size() > 0 && iterations < PATHFINDING_ITER_CAP; iterations++) {
-
-                            // Find the (open) node with the lowest f value, and move it to the closed list
-                            Node focus = openList.get(0);
-                            for (Node node : openList) {
-                                if (node.f < focus.f) {
-                                    focus = node;
-                                }
-                            }
-                            closedMap[focus.x][focus.y] = true;
-                            openList.remove(focus);
-
-                            if (focus.x == px && focus.y == py) { // Target aquired
-                                result = focus;
-                                logDebug(MAGENTA+"Found at ("+focus.x+", "+focus.y+") from ("+x+", "+y+") after "+iterations+" iterations"+RESET);
-                                break;
-                            }
-
-                            // Gen chillren
-                            // Ensure next tile is: in bounds, not a wall, and hasn't already been iterated over
-                            int tScore = focus.c + 1;
-                            if (focus.y-1 >= 0 && map[focus.x][focus.y-1] != null && !closedMap[focus.x][focus.y-1]) { // UP
-                                boolean inOpenList = false;
-                                for (Node node : openList) {
-                                    if (node.x == focus.x && node.y == focus.y-1) {
-                                        // Allow cheaper nodes to steal children from other nodes
-                                        if (node.c < tScore) {
-                                            node.setParent(focus);
-                                        }
-                                        inOpenList = true;
-                                        break;
-                                    }
-                                }
-                                if (!inOpenList) {
-                                    openList.add(new Node(focus, focus.x, focus.y-1, 
-                                    tScore,
-                                    Math.abs(focus.x-px)+Math.abs(focus.y-1-px), KeyCode.UP));
-                                }
-                            }
-                            if (focus.y+1 < MAP_M && map[focus.x][focus.y+1] != null && !closedMap[focus.x][focus.y+1]) { // DOWN
-                                boolean inOpenList = false;
-                                for (Node node : openList) {
-                                    if (node.x == focus.x && node.y == focus.y+1) {
-                                        if (node.c < tScore) {
-                                            node.setParent(focus);
-                                        }
-                                        inOpenList = true;
-                                        break;
-                                    }
-                                }
-                                if (!inOpenList) {
-                                    openList.add(new Node(focus, focus.x, focus.y+1,
-                                    tScore,
-                                    Math.abs(focus.x-px)+Math.abs(focus.y+1-px), KeyCode.DOWN));
-                                    closedMap[focus.x][focus.y+1] = true;
-                                }
-                            }
-                            if (focus.x-1 >= 0 && map[focus.x-1][focus.y] != null && !closedMap[focus.x-1][focus.y]) { // LEFT
-                                boolean inOpenList = false;
-                                for (Node node : openList) {
-                                    if (node.x == focus.x-1 && node.y == focus.y) {
-                                        if (node.c < tScore) {
-                                            node.setParent(focus);
-                                        }
-                                        inOpenList = true;
-                                        break;
-                                    }
-                                }
-                                if (!inOpenList) {
-                                    openList.add(new Node(focus, focus.x-1, focus.y, 
-                                    tScore, 
-                                    Math.abs(focus.x-1-px)+Math.abs(focus.y-px), KeyCode.LEFT));
-                                    closedMap[focus.x-1][focus.y] = true;
-                                }
+                            final PathCache.Path path = pathCache.find(x, y, px, py, PATHFINDING_ITER_CAP, tickCount);
+                            event.source = Events.PathSearch.SEARCH;
+                            event.iterations = path.iterations;
+                            event.contingency = path.contingency;
+                            length = path.moves.length;
+                            if (path.contingency) {
+                                logDebug(RED+"Launching contingency..."+RESET);
+                            } else {
+                                logDebug(MAGENTA+"Found at ({}, {}) from ({}, {}) after {} iterations"+RESET, px, py, x, y, path.iterations);
                             }
-                            if (focus.x+1 < MAP_M  && map[focus.x+1][focus.y] != null && !closedMap[focus.x+1][focus.y]) { // RIGHT
-                                boolean inOpenList = false;
-                                for (Node node : openList) {
-                                    if (node.x == focus.x+1 && node.y == focus.y) {
-                                        if (node.c < tScore) {
-                                            node.setParent(focus);
-                                        }
-                                        inOpenList = true;
-                                        break;
-                                    }
-                                }
-                                if (!inOpenList) {
-                                    openList.add(new Node(focus, focus.x+1, focus.y, 
-                                    tScore, 
-                                    Math.abs(focus.x+1-px)+Math.abs(focus.y-px), KeyCode.RIGHT));
-                                    closedMap[focus.x+1][focus.y] = true;
-                                }
+                            final int steps = length - memoryCap(length);
+                            for (int i = 0; i < steps; i++) {
+                                moveQueue.add(path.moves[i]);
                             }
                         }
 
-                        // If we didn't reach the target before the iteration cap was hit, or there's no path, just get the "closets" one
-                        if (result == null) {
-                            logDebug(RED+"Launching contingency..."+RESET);
-                            int minIndex = 0;
-                            for (int i = 0; i < openList.size(); i++) {
-                                if (openList.get(i).f < openList.get(minIndex).f) {
-                                    minIndex = i;
-                                }
-                            }
-                            result = openList.get(minIndex);
-                        }
-
-                        // Going backwards, get KeyCodes as list
-                        List<KeyCode> sequence = new ArrayList<KeyCode>();
-                        while (result != null && result.direction != null) {
-                            sequence.add(result.direction);
-                            result = result.parent;
-                        }
-
-
-                        // Going from the "start" of the path (the end of the sequence), record into memory
-                        int cap;
-                        if (trackingTime > 0) {
-                            cap = sequence.size() - 1 - PATH_MEMORY;
-                            if (cap <= 0) {
-                                cap = sequence.size() - 2;
-                                if (cap <= 0) {
-                                    cap = 0;
-                                }
-                            }
-                        } else {
-                            cap = 0;
-                        }
-                        for (int i = sequence.size()-1; i >= cap; i--) {
-                            // logDebug("Adding -> |"+sequence.get(i)+"|");
-                            moveQueue.add(sequence.get(i));
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.startX = x;
+                            event.startY = y;
+                            event.targetX = px;
+                            event.targetY = py;
+                            event.pathLength = length;
+                            event.commit();
                         }
-                        // moveQueue.add(sequence.get(sequence.size()-1));
 
-                        changeDirection(x, y);
-                        logDebug("Polled move at END |"+currentDirection+"|");
-
-                        logDebug("Found path; length = "+sequence.size()+" from ("+x+", "+y+") to ("+px+", "+py+")");
+                        logDebug("Found path; length = {} from ({}, {}) to ({}, {})", length, x, y, px, py);
                     }
+                    changeDirection(x, y);
+                    // logDebug("Polled move |"+currentDirection+"|");
                 }
             } else {
                 changeDirClear = true;
@@ -773,10 +990,10 @@ class Engine {
                 // logDebug(RED+"Tracking player~"+trackingTime+RESET);
             }
 
-            if (playerInView(x, y, pxf, pyf)) {
+            if (sawPlayer) {
                 if (trackingTime <= 0) {
                     logDebug(RED+"Path reset"+RESET);
-                    moveQueue = new ArrayDeque<KeyCode>(); // Cancel queued path
+                    moveQueue.clear(); // Cancel queued path
                 }
                 trackingTime = TRACKING_TIME;
                 // logDebug("+++++++PLAYER SPOTTED++++++++++");
@@ -784,132 +1001,58 @@ class Engine {
         }
 
         /**
+         * Gets how many moves at the end of a path should be forgotten. When tracking the player,
+         * only the first few moves are remembered so that the ghost re-plans as the player moves.
+         * @param length Length of the path
+         * @return Number of moves to drop from the end of the path
+         */
+        private int memoryCap(int length) {
+            if (trackingTime <= 0) return 0;
+            int cap = length - 1 - PATH_MEMORY;
+            if (cap <= 0) {
+                cap = length - 2;
+                if (cap <= 0) {
+                    cap = 0;
+                }
+            }
+            return cap;
+        }
+
+        /**
+         * Checks if the ghost can see the player down a row or column.
+         * Touching the player is handled separately, by checkCollisions.
          * @param x Ghost grid x
          * @param y Ghost grid y
          * @param px Player grid x
          * @param py Player grid y
          */
         private boolean playerInView(int x, int y, int px, int py) {
-            if (x == px || y == py) {
-                if (
-                    Math.abs(display.getCenterX()-playerDisplay.getCenterX()) <= ENTITY_RADIUS+ENTITY_RADIUS && 
-                    Math.abs(display.getCenterY()-playerDisplay.getCenterY()) <= ENTITY_RADIUS+ENTITY_RADIUS
-                    ) { // Player/ghost collision
-                    if (scared) {
-                        display.setDead();
-                        fleeLocation = enemySpawnpoints[random.nextInt(enemySpawnpoints.length)];
-                        moveQueue = new ArrayDeque<KeyCode>();
-                        alive = false;
-                        scared = false;
-                        addScore(POINTS_PER_GHOST);
-                        logDebug(RED+"SET DEAD"+RESET);
-                    } else if (alive) {
-                        stop();
-                    }
-                }
-                else if (x < px) {
-                    for (int i = x; i < px; i++) {
-                        if (map[i][y] == null) return false;
-                    }
-                } else if (x > px) {
-                    for (int i = x; i > px; i--) {
-                        if (map[i][y] == null) return false;
-                    }
-                } else if (y < py) {
-                    for (int i = y; i < py; i++) {
-                        if (map[x][i] == null) return false;
-                    }
-                } else/* if (y > py)*/ {
-                    for (int i = y; i > py; i--) {
-                        if (map[x][i] == null) return false;
-                    }
-                }
-                return true;
+            return inLineOfSight(x, y, px, py);
+        }
+
+        private void touchedPlayer() {
+            if (scared) {
+                view.setGhostDead(index);
+                fleeLocation = enemySpawnpoints[random.nextInt(enemySpawnpoints.length)];
+                moveQueue.clear();
+                alive = false;
+                scared = false;
+                addScore(POINTS_PER_GHOST);
+                logDebug(RED+"SET DEAD"+RESET);
+            } else if (alive) {
+                stop();
             }
-            return false;
         }
 
         private void changeDirection(int gridX, int gridY) {
             changeDirClear = false;
-            currentDirection = moveQueue.poll();
-            if (currentDirection == null) currentDirection = KeyCode.P; // P for paused
+            currentDirection = moveQueue.poll(); // NONE if there's nothing left, which stops the ghost
             recenter(gridX, gridY);
         }
 
         private void recenter(int gridX, int gridY) {
-            display.setCenterX((gridX+0.5) * RATIO);
-            display.setCenterY((gridY+0.5) * RATIO);
-        }
-
-        private static class Node {
-            private Node parent;
-            private final int x, y, h; // x, y, & heuristic
-            private int c, f; // Cost & function
-            private final KeyCode direction;
-            private Node(Node parent, int x, int y, int c, int h, KeyCode direction) {
-                this.parent = parent;
-                this.x = x;
-                this.y = y;
-                this.c = c;
-                this.h = h;
-                this.f = this.c + this.h;
-                this.direction = direction;
-            }
-            private void setParent(Node node) {
-                this.c = node.c + 1;
-                this.f = this.c + this.h;
-                this.parent = node;
-            }
-        }
-
-        private static class GhostSprite {
-            private final ImageView base = new ImageView(Resource.getImage("ghost"));
-            private final ImageView eyes = new ImageView(Resource.getImage("ghostEyes"));
-            private final ImageView scared = new ImageView(Resource.getImage("ghostScared"));
-            // private final ImageView[] list = { base, eyes, scared };
-            private GhostSprite() {
-                final double rad = ENTITY_RADIUS*2;
-                base.setFitHeight(rad);
-                base.setFitWidth(rad);
-                eyes.setFitHeight(rad);
-                eyes.setFitWidth(rad);
-                scared.setFitHeight(rad);
-                scared.setFitWidth(rad);
-                Interface.addAllEntity(base, eyes);
-            }
-            private void setNormal() {
-                reset();
-                Interface.addAllEntity(base, eyes);
-            }
-            private void setScared() {
-                reset();
-                Interface.addAllEntity(base, scared);
-                // fDebug(Thread::dumpStack);
-            }
-            private void setDead() {
-                reset();
-                Interface.addAllEntity(eyes);
-            }
-            private void reset() {
-                Interface.removeAllEntity(scared, eyes, base);
-            }
-            private double getCenterX() {
-                return base.getX()+ENTITY_RADIUS;
-            }
-            private double getCenterY() {
-                return base.getY()+ENTITY_RADIUS;
-            }
-            private void setCenterX(double value) {
-                base.setX(value-ENTITY_RADIUS);
-                eyes.setX(value-ENTITY_RADIUS);
-                scared.setX(value-ENTITY_RADIUS);
-            }
-            private void setCenterY(double value) {
-                // for (ImageView image : list) image.setY(value-ENTITY_RADIUS);
-                base.setY(value-ENTITY_RADIUS);
-                eyes.setY(value-ENTITY_RADIUS);
-                scared.setY(value-ENTITY_RADIUS);
-            }
+            centerX = (gridX+0.5) * RATIO;
+            centerY = (gridY+0.5) * RATIO;
         }
     }
 }
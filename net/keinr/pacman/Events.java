@@ -0,0 +1,114 @@
+package net.keinr.pacman;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events, all under the "Pacman" category so they show up next to GC, safepoints & the like.
+ * They cost next to nothing unless a recording is running. The thresholds here are defaults; resources/pacman.jfc
+ * has settings that can be changed from the command line, e.g.
+ * <code>-XX:StartFlightRecording:settings=resources/pacman.jfc,tick-threshold=2ms</code>
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Events {
+    private static final String CATEGORY = "Pacman";
+
+    private Events() {}
+
+    @Name("net.keinr.pacman.Tick")
+    @Label("Tick")
+    @Description("One run of the game cycle")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Tick extends Event {
+        @Label("Tick")
+        long tick;
+
+        @Label("Ghosts")
+        int ghosts;
+    }
+
+    @Name("net.keinr.pacman.PathSearch")
+    @Label("Path Search")
+    @Description("A ghost getting a new path, from whichever source gave it")
+    @Category(CATEGORY)
+    @Threshold("0 ns")
+    @StackTrace(false)
+    static final class PathSearch extends Event {
+        // Sources
+        static final String DISTANCE_FIELD = "Distance field";
+        static final String NEXT_HOP_TABLE = "Next hop table";
+        static final String SEARCH = "Search";
+
+        @Label("Source")
+        @Description("Distance field (chasing the player), next hop table (small maps), or search (through the path cache)")
+        String source;
+
+        @Label("Start X")
+        int startX;
+
+        @Label("Start Y")
+        int startY;
+
+        @Label("Target X")
+        int targetX;
+
+        @Label("Target Y")
+        int targetY;
+
+        @Label("Iterations")
+        @Description("Nodes expanded by the search that found the path, which may have been an earlier one if it was cached; 0 for the other sources")
+        int iterations;
+
+        @Label("Path Length")
+        int pathLength;
+
+        @Label("Contingency")
+        @Description("The target couldn't be reached, so the path goes to the closest tile instead")
+        boolean contingency;
+    }
+
+    @Name("net.keinr.pacman.Supermode")
+    @Label("Super Mode")
+    @Description("The player ate a power dot, or super mode wore off")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Supermode extends Event {
+        @Label("Entered")
+        boolean entered;
+    }
+
+    @Name("net.keinr.pacman.GameState")
+    @Label("Game State")
+    @Description("A game started or ended")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class GameState extends Event {
+        @Label("Started")
+        boolean started;
+
+        @Label("Score")
+        int score;
+    }
+
+    @Name("net.keinr.pacman.FrameApplied")
+    @Label("Frame Applied")
+    @Description("A batch of display changes applied on the FX thread")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class FrameApplied extends Event {
+        @Label("Node Changes")
+        int nodeChanges;
+
+        @Label("Tasks")
+        int tasks;
+    }
+}
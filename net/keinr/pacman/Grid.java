@@ -0,0 +1,141 @@
+package net.keinr.pacman;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact walkability of a map for the hot paths: a wall bitset, and a 4 bit exit mask per tile
+ * saying which neighbours can be moved to. Tiles are indexed by y*width + x.
+ * Also numbers the corridors: every open tile gets the ID of the wall-free run it's in along
+ * its row and along its column, so line of sight is just comparing two IDs.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Grid {
+    // Exit mask bits, one per direction
+    static final int UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8;
+
+    final int width, height;
+    private final long[] walls; // Bit per tile, set if it's a wall
+    private final byte[] exits; // Exit mask per tile; always 0 for walls
+    private final int[] rowSegments, columnSegments; // Corridor ID per tile, or -1 for walls
+
+    /**
+     * @param width Width of the map in tiles
+     * @param height Height of the map in tiles
+     * @param open Which tiles aren't walls, indexed by y*width + x
+     */
+    Grid(int width, int height, boolean[] open) {
+        this.width = width;
+        this.height = height;
+        this.walls = new long[(width*height+63) >> 6];
+        this.exits = new byte[width*height];
+        for (int i = 0; i < open.length; i++) {
+            if (!open[i]) walls[i >> 6] |= 1L << i;
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int i = y*width + x;
+                if (!open[i]) continue;
+                int mask = 0;
+                if (y-1 >= 0 && open[i-width]) mask |= UP;
+                if (y+1 < height && open[i+width]) mask |= DOWN;
+                if (x-1 >= 0 && open[i-1]) mask |= LEFT;
+                if (x+1 < width && open[i+1]) mask |= RIGHT;
+                exits[i] = (byte)mask;
+            }
+        }
+
+        this.rowSegments = new int[width*height];
+        this.columnSegments = new int[width*height];
+        int segment = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int i = y*width + x;
+                if (!open[i]) rowSegments[i] = -1;
+                else rowSegments[i] = x > 0 && open[i-1] ? segment : ++segment;
+            }
+        }
+        segment = -1;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                final int i = y*width + x;
+                if (!open[i]) columnSegments[i] = -1;
+                else columnSegments[i] = y > 0 && open[i-width] ? segment : ++segment;
+            }
+        }
+    }
+
+    private Grid(int width, int height, long[] walls, byte[] exits, int[] rowSegments, int[] columnSegments) {
+        this.width = width;
+        this.height = height;
+        this.walls = walls;
+        this.exits = exits;
+        this.rowSegments = rowSegments;
+        this.columnSegments = columnSegments;
+    }
+
+    /**
+     * Reads a grid written by {@link #write(DataOutputStream)}
+     * @param in Where to read from; left just past the grid
+     * @param width Width of the map in tiles
+     * @param height Height of the map in tiles
+     * @return The grid
+     */
+    static Grid read(ByteBuffer in, int width, int height) {
+        final int size = width*height;
+        final long[] walls = new long[(size+63) >> 6];
+        final byte[] exits = new byte[size];
+        final int[] rowSegments = new int[size], columnSegments = new int[size];
+        in.asLongBuffer().get(walls);
+        in.position(in.position() + walls.length*Long.BYTES);
+        in.get(exits);
+        in.asIntBuffer().get(rowSegments);
+        in.position(in.position() + size*Integer.BYTES);
+        in.asIntBuffer().get(columnSegments);
+        in.position(in.position() + size*Integer.BYTES);
+        return new Grid(width, height, walls, exits, rowSegments, columnSegments);
+    }
+
+    /**
+     * Writes everything but the dimensions, which the reader has to know
+     * @param out Where to write to
+     */
+    void write(DataOutputStream out) throws IOException {
+        for (long word : walls) out.writeLong(word);
+        out.write(exits);
+        for (int segment : rowSegments) out.writeInt(segment);
+        for (int segment : columnSegments) out.writeInt(segment);
+    }
+
+    /** @return If the tile can be walked on. Must be in bounds. */
+    boolean isOpen(int index) {
+        return (walls[index >> 6] & (1L << index)) == 0;
+    }
+
+    /** @return If the tile can be walked on. Must be in bounds. */
+    boolean isOpen(int x, int y) {
+        return isOpen(y*width + x);
+    }
+
+    /** @return The tile's exit mask */
+    int exits(int index) {
+        return exits[index];
+    }
+
+    /** @return The tile's exit mask */
+    int exits(int x, int y) {
+        return exits[y*width + x];
+    }
+
+    /**
+     * @return true if both tiles are open and on the same row or column with no walls in between
+     */
+    boolean inLineOfSight(int x, int y, int px, int py) {
+        final int a = y*width + x, b = py*width + px;
+        if (y == py) return rowSegments[a] != -1 && rowSegments[a] == rowSegments[b];
+        if (x == px) return columnSegments[a] != -1 && columnSegments[a] == columnSegments[b];
+        return false;
+    }
+}
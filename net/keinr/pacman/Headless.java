@@ -0,0 +1,43 @@
+package net.keinr.pacman;
+
+import java.util.Random;
+
+/**
+ * Runs the engine without a display, as fast as the CPU allows.
+ * The player turns in a random direction every so often, and a new
+ * game is started whenever the old one ends.
+ * Usage: java net.keinr.pacman.Headless [ticks]
+ * @author Orion Musselman (KeinR)
+ */
+
+public final class Headless {
+    private static final int DEFAULT_TICKS = 100000; // How many ticks to run if not given
+    private static final int TURN_INTERVAL = 50; // How many ticks between random player turns
+    private static final int[] TURNS = { Direction.UP, Direction.DOWN, Direction.LEFT, Direction.RIGHT };
+
+    private Headless() {}
+
+    public static void main(String[] args) {
+        final int ticks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TICKS;
+        final Random input = new Random();
+
+        Engine.load(View.NONE);
+
+        int games = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            if (Engine.isGameOver()) {
+                Engine.start();
+                games++;
+            }
+            if (i % TURN_INTERVAL == 0) {
+                Engine.keyPressed(TURNS[input.nextInt(TURNS.length)]);
+            }
+            Engine.tick();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d ticks in %.3fs (%.0f ticks/s) over %d games%n", ticks, seconds, ticks/seconds, games);
+        if (Profiler.ENABLED) System.out.print(Profiler.summary());
+    }
+}
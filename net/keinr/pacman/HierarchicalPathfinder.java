@@ -0,0 +1,265 @@
+package net.keinr.pacman;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical A* (HPA*) for maps too big to search tile by tile.
+ * The start & target are joined to the entrances of their clusters with a search inside each cluster,
+ * then A* runs over the {@link ClusterGraph} to get a route of entrances. Only the first part of the route
+ * is refined into moves; once those have been walked, searching again from there refines the next part,
+ * so a long trip never pays for the tiles at the far end until it gets there.
+ * Not thread safe; each thread that searches needs its own instance.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class HierarchicalPathfinder implements PathSearcher {
+    private static final int REFINE_MOVES = ClusterGraph.CLUSTER_SIZE*2; // Moves to refine per search, at least; the rest of the route waits for the next search
+
+    private final ClusterGraph graph;
+    private final int width;
+    private final int startNode, goalNode; // Extra nodes for the start & target tiles, after the graph's
+
+    // A* scratch space, indexed by node. A node's entries are only valid if its stamp matches the current generation.
+    private final int[] g, f, h, parent, heapIndex, seen, closed;
+    private final int[] heap, route;
+    private int heapSize, generation;
+
+    // Searches inside a cluster, indexed by tile within the cluster
+    private final int[] startDistance, startFrom, goalDistance, goalFrom, distance, from, queue;
+
+    // Result of the last search
+    private final byte[] path; // Directions
+    private int pathLength, iterations, expansions;
+    private boolean contingency;
+
+    /**
+     * @param graph The map to search
+     */
+    HierarchicalPathfinder(ClusterGraph graph) {
+        final int size = graph.nodeCapacity()+2;
+        this.graph = graph;
+        this.width = graph.grid.width;
+        this.startNode = size-2;
+        this.goalNode = size-1;
+        this.g = new int[size];
+        this.f = new int[size];
+        this.h = new int[size];
+        this.parent = new int[size];
+        this.heapIndex = new int[size];
+        this.seen = new int[size];
+        this.closed = new int[size];
+        this.heap = new int[size];
+        this.route = new int[size];
+        this.startDistance = new int[ClusterGraph.CLUSTER_AREA];
+        this.startFrom = new int[ClusterGraph.CLUSTER_AREA];
+        this.goalDistance = new int[ClusterGraph.CLUSTER_AREA];
+        this.goalFrom = new int[ClusterGraph.CLUSTER_AREA];
+        this.distance = new int[ClusterGraph.CLUSTER_AREA];
+        this.from = new int[ClusterGraph.CLUSTER_AREA];
+        this.queue = new int[ClusterGraph.CLUSTER_AREA];
+        this.path = new byte[REFINE_MOVES + ClusterGraph.CLUSTER_AREA]; // The last part refined can be a whole cluster long
+    }
+
+    /**
+     * Finds the start of a path from one tile to another. If the target can't be reached, the route goes to
+     * the entrance closest to it instead. The iteration cap isn't used; the graph is small enough to search in full.
+     */
+    @Override
+    public int find(int x, int y, int tx, int ty, int iterationCap) {
+        pathLength = 0;
+        iterations = 0;
+        expansions = 0;
+        contingency = false;
+        final int start = y*width + x, target = ty*width + tx;
+        if (start == target) return 0;
+
+        final int startCluster = graph.clusterAt(x, y), goalCluster = graph.clusterAt(tx, ty);
+        final ClusterGraph.Cluster first = graph.cluster(startCluster), last = graph.cluster(goalCluster);
+        graph.search(first, start, startDistance, startFrom, queue);
+        if (startCluster == goalCluster && startDistance[last.local(target)] != -1) { // Close enough to skip the graph
+            appendFromStart(first, target);
+            return pathLength;
+        }
+        graph.search(last, target, goalDistance, goalFrom, queue);
+
+        if (++generation == 0) { // Wrapped around, old stamps could now look current
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
+        }
+        heapSize = 0;
+        open(startNode, -1, 0, Math.abs(x-tx)+Math.abs(y-ty));
+
+        int result = -1, closest = startNode;
+        while (heapSize > 0) {
+            iterations++;
+            final int focus = pop();
+            closed[focus] = generation;
+
+            if (focus == goalNode) {
+                result = focus;
+                break;
+            }
+            if (h[focus] < h[closest]) closest = focus;
+
+            if (focus == startNode) { // Into the entrances the start can reach
+                for (int node = 0; node < first.count(); node++) {
+                    final int cost = startDistance[first.local(first.tiles[node])];
+                    if (cost != -1) relax(startCluster*ClusterGraph.MAX_NODES + node, focus, g[focus] + cost, first.tiles[node], tx, ty);
+                }
+                continue;
+            }
+
+            final int c = focus / ClusterGraph.MAX_NODES, node = focus % ClusterGraph.MAX_NODES;
+            final ClusterGraph.Cluster cluster = graph.cluster(c);
+
+            // Across the entrance
+            final int partner = graph.partner(focus);
+            relax(partner, focus, g[focus] + 1, graph.cluster(partner / ClusterGraph.MAX_NODES).tiles[partner % ClusterGraph.MAX_NODES], tx, ty);
+
+            // To the other entrances of the cluster
+            for (int other = 0; other < cluster.count(); other++) {
+                final int cost = cluster.cost(node, other);
+                if (other != node && cost != -1) relax(c*ClusterGraph.MAX_NODES + other, focus, g[focus] + cost, cluster.tiles[other], tx, ty);
+            }
+
+            // To the target
+            if (c == goalCluster) {
+                final int cost = goalDistance[last.local(cluster.tiles[node])];
+                if (cost != -1) relax(goalNode, focus, g[focus] + cost, target, tx, ty);
+            }
+        }
+
+        // If there's no path, just get the closest entrance
+        contingency = result == -1;
+        if (contingency) result = closest;
+
+        int routeLength = 0;
+        for (int i = result; i != -1; i = parent[i]) route[routeLength++] = i;
+
+        // The route is back to front, so refine from the end until there are enough moves
+        for (int i = routeLength-2; i >= 0 && pathLength < REFINE_MOVES; i--) {
+            final int previous = route[i+1], next = route[i];
+            if (previous == startNode) {
+                appendFromStart(first, tileOf(next));
+            } else if (next == goalNode) {
+                appendToGoal(last, tileOf(previous));
+            } else if (previous / ClusterGraph.MAX_NODES != next / ClusterGraph.MAX_NODES) { // Across an entrance
+                path[pathLength++] = (byte)graph.cluster(previous / ClusterGraph.MAX_NODES).side(previous % ClusterGraph.MAX_NODES);
+            } else {
+                final ClusterGraph.Cluster cluster = graph.cluster(next / ClusterGraph.MAX_NODES);
+                graph.search(cluster, tileOf(previous), distance, from, queue);
+                append(cluster, tileOf(next), distance, from);
+            }
+        }
+        return pathLength;
+    }
+
+    @Override
+    public int step(int index) { return path[index]; }
+
+    @Override
+    public int getPathLength() { return pathLength; }
+
+    @Override
+    public int getIterations() { return iterations; }
+
+    @Override
+    public int getExpansions() { return expansions; }
+
+    @Override
+    public boolean isContingency() { return contingency; }
+
+    private int tileOf(int node) {
+        return graph.cluster(node / ClusterGraph.MAX_NODES).tiles[node % ClusterGraph.MAX_NODES];
+    }
+
+    private void appendFromStart(ClusterGraph.Cluster cluster, int tile) {
+        append(cluster, tile, startDistance, startFrom);
+    }
+
+    // Adds the moves from the origin of a cluster search to a tile, filling them in back to front
+    private void append(ClusterGraph.Cluster cluster, int tile, int[] distance, int[] from) {
+        int local = cluster.local(tile);
+        final int length = distance[local];
+        for (int n = pathLength+length; distance[local] != 0; local = from[local]) {
+            path[--n] = (byte)ClusterGraph.direction(from[local], local);
+        }
+        pathLength += length;
+    }
+
+    // Adds the moves from a tile to the target, which the goal search started from
+    private void appendToGoal(ClusterGraph.Cluster cluster, int tile) {
+        for (int local = cluster.local(tile); goalDistance[local] != 0; local = goalFrom[local]) {
+            path[pathLength++] = (byte)ClusterGraph.direction(local, goalFrom[local]);
+        }
+    }
+
+    private void relax(int node, int from, int cost, int tile, int tx, int ty) {
+        if (closed[node] == generation) return;
+        if (seen[node] != generation) {
+            open(node, from, cost, Math.abs(tile%width - tx) + Math.abs(tile/width - ty));
+        } else if (cost < g[node]) {
+            g[node] = cost;
+            f[node] = cost + h[node];
+            parent[node] = from;
+            siftUp(heapIndex[node]);
+        }
+    }
+
+    private void open(int node, int from, int cost, int heuristic) {
+        seen[node] = generation;
+        expansions++;
+        g[node] = cost;
+        h[node] = heuristic;
+        f[node] = cost + heuristic;
+        parent[node] = from;
+        heap[heapSize] = node;
+        heapIndex[node] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    private int pop() {
+        final int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    // Lower f first, then lower h so ties go to the node closer to the target
+    private boolean before(int a, int b) {
+        return f[a] < f[b] || (f[a] == f[b] && h[a] < h[b]);
+    }
+
+    private void siftUp(int i) {
+        final int node = heap[i];
+        while (i > 0) {
+            final int up = (i-1) >> 1;
+            if (!before(node, heap[up])) break;
+            heap[i] = heap[up];
+            heapIndex[heap[i]] = i;
+            i = up;
+        }
+        heap[i] = node;
+        heapIndex[node] = i;
+    }
+
+    private void siftDown(int i) {
+        final int node = heap[i];
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= heapSize) break;
+            if (child+1 < heapSize && before(heap[child+1], heap[child])) child++;
+            if (!before(heap[child], node)) break;
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = node;
+        heapIndex[node] = i;
+    }
+}
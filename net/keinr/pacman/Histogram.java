@@ -0,0 +1,84 @@
+package net.keinr.pacman;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values with bounded relative error, like HdrHistogram.
+ * Each power of two is split into 32 linear buckets, so any value is off by at most ~3%,
+ * and everything from 0 to Long.MAX_VALUE fits in under 2k counters.
+ * Safe to record into from any number of threads; reads are only approximate while
+ * values are being recorded.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS; // Buckets per power of two
+
+    private final AtomicLongArray counts = new AtomicLongArray((65-SUB_BITS) << SUB_BITS);
+    private final LongAdder count = new LongAdder(), sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value The value to add, negative ones are counted as 0
+     */
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** @return Number of values recorded */
+    long getCount() { return count.sum(); }
+
+    /** @return Largest value recorded */
+    long getMax() { return max.get(); }
+
+    /** @return Average of the values recorded */
+    double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double)sum.sum() / n;
+    }
+
+    /**
+     * @param percentile From 0 to 100
+     * @return The value that the given percent of values are less than or equal to, rounded up to its bucket's upper bound
+     */
+    long getPercentile(double percentile) {
+        final long n = count.sum();
+        if (n == 0) return 0;
+        final long rank = Math.max(1, (long)Math.ceil(n*percentile/100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max.get());
+        }
+        return max.get(); // Counts were still being added to when we read them
+    }
+
+    /** Forgets everything recorded. Values recorded at the same time may be partly kept */
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    // Values below SUB_COUNT get a bucket each, after that it's SUB_COUNT buckets per power of two
+    private static int bucket(long value) {
+        if (value < SUB_COUNT) return (int)value;
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift+1) << SUB_BITS) + (int)(value >>> shift) - SUB_COUNT;
+    }
+
+    private static long highest(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        final int shift = (bucket >> SUB_BITS) - 1;
+        final long top = (bucket & (SUB_COUNT-1)) + SUB_COUNT;
+        return ((top+1) << shift) - 1;
+    }
+}
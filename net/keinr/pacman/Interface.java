@@ -5,20 +5,29 @@ import javafx.stage.Stage;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.layout.Pane;
-import javafx.application.Platform;
+import javafx.animation.AnimationTimer;
 import javafx.scene.Node;
 import javafx.event.EventHandler;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.shape.Rectangle;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
-import static net.keinr.pacman.Main.logDebug;
+import static net.keinr.pacman.Log.logDebug;
 
 /**
- * Deals with all display related things
+ * Deals with all display related things.
+ * Changes can come from any thread; they're batched into frames and applied on the FX thread every pulse.
  * @author Orion Musselman (KeinR)
  */
 
 class Interface {
+    // Size of the window, which scrolls over maps bigger than it
+    static final int VIEW_WIDTH = 400;
+    static final int VIEW_HEIGHT = 400;
 
     // Text
     private static final Label
@@ -32,6 +41,7 @@ class Interface {
     // Roots
     private static final Pane
     backgroundRoot = new Pane(),
+    mazeRoot = new Pane(),
     gameRoot = new Pane(),
     entityRoot = new Pane(),
     gameOverRoot = new Pane(),
@@ -41,16 +51,31 @@ class Interface {
     masterRoot = new Pane();
 
     // Main scene
-    private static final Scene main = new Scene(masterRoot, 400, 400);
+    private static final Scene main = new Scene(masterRoot, VIEW_WIDTH, VIEW_HEIGHT);
 
     private static boolean first = true;
 
+    // Display changes are collected into the open frame, which is published to be applied on the FX thread
+    private static final Object frameLock = new Object();
+    private static final Frame openFrame = new Frame();
+    private static Frame publishedFrame = new Frame(), spareFrame = new Frame();
+    private static volatile boolean framePending = false; // If the published frame has anything in it
+
+    private static volatile LongConsumer pulseListener = now -> {};
+    private static final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (framePending) applyFrame();
+            pulseListener.accept(now);
+        }
+    };
+
     static void setup(Stage window) {
 
-        Rectangle mainBackground = new Rectangle(0, 0, 400, 400);
+        Rectangle mainBackground = new Rectangle(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
         mainBackground.setId("mainBackground");
 
-        Rectangle gameOverBackground = new Rectangle(0, 0, 400, 400);
+        Rectangle gameOverBackground = new Rectangle(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
         gameOverBackground.setId("gameOverBackground");
 
         gameOverDisplay.setLayoutX(150);
@@ -61,7 +86,7 @@ class Interface {
         gameOverDesc.setLayoutY(200);
         gameOverDesc.setId("gameOverDesc");
 
-        Rectangle pausedBackground = new Rectangle(0, 0, 400, 400);
+        Rectangle pausedBackground = new Rectangle(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
         pausedBackground.setId("pausedBackground");
 
         pausedTitle.setLayoutX(150);
@@ -72,10 +97,10 @@ class Interface {
         pausedDesc.setLayoutY(200);
         pausedDesc.setId("pausedDesc");
 
-        Rectangle topbarBackground = new Rectangle(0, 0, 400, 17);
+        Rectangle topbarBackground = new Rectangle(0, 0, VIEW_WIDTH, 17);
         topbarBackground.setId("topbarBackground");
 
-        Rectangle topbarBorder = new Rectangle(0, 17, 400, 3);
+        Rectangle topbarBorder = new Rectangle(0, 17, VIEW_WIDTH, 3);
         topbarBorder.setId("topbarBorder");
 
         score.setLayoutX(5);
@@ -90,7 +115,7 @@ class Interface {
 
         pausedRoot.getChildren().addAll(pausedBackground, pausedTitle, pausedDesc);
 
-        mainRoot.getChildren().addAll(backgroundRoot, gameRoot, entityRoot, gameOverRoot);
+        mainRoot.getChildren().addAll(backgroundRoot, mazeRoot, gameRoot, entityRoot, gameOverRoot);
 
         overlayRoot.getChildren().addAll(topbarBackground, topbarBorder, score, highScore);
 
@@ -104,21 +129,19 @@ class Interface {
             Resource.getImage("icon")
         );
         window.show();
+        pulse.start();
     }
 
     static void add(Node node) {
-        Platform.runLater(() -> gameRoot.getChildren().add(node));
+        record(gameRoot, node, true);
     }
 
     static void addEntity(Node node) {
-        Platform.runLater(() -> entityRoot.getChildren().add(node));
+        record(entityRoot, node, true);
     }
 
     static void addAllEntity(Node... nodes) {
-        Platform.runLater(() -> {
-            logDebug("Adding all...");
-            entityRoot.getChildren().addAll(nodes);
-        });
+        for (Node node : nodes) record(entityRoot, node, true);
     }
 
     // static void removeEntity(Node node) {
@@ -126,11 +149,42 @@ class Interface {
     // }
 
     static void removeAllEntity(Node... nodes) {
-        Platform.runLater(() -> entityRoot.getChildren().removeAll(nodes));
+        for (Node node : nodes) record(entityRoot, node, false);
+    }
+
+    /**
+     * Shows one chunk of the map. Must be called on the FX thread.
+     * @param maze The chunk's walls
+     * @param dots The chunk's dots
+     */
+    static void showChunk(Node maze, Node dots) {
+        mazeRoot.getChildren().add(maze);
+        gameRoot.getChildren().add(dots);
+    }
+
+    /**
+     * Stops showing a chunk of the map. Must be called on the FX thread.
+     * @param maze The chunk's walls
+     * @param dots The chunk's dots
+     */
+    static void hideChunk(Node maze, Node dots) {
+        mazeRoot.getChildren().remove(maze);
+        gameRoot.getChildren().remove(dots);
     }
 
-    static void addBackground(Node node) {
-        Platform.runLater(() -> backgroundRoot.getChildren().add(node));
+    /**
+     * Scrolls the map so that the given point is at the top left of the window.
+     * Must be called on the FX thread.
+     * @param x Map x, in pixels
+     * @param y Map y, in pixels
+     */
+    static void scrollTo(double x, double y) {
+        mazeRoot.setTranslateX(-x);
+        mazeRoot.setTranslateY(-y);
+        gameRoot.setTranslateX(-x);
+        gameRoot.setTranslateY(-y);
+        entityRoot.setTranslateX(-x);
+        entityRoot.setTranslateY(-y);
     }
 
     /*
@@ -143,45 +197,172 @@ class Interface {
     */
 
     static void setPaused() {
-        Platform.runLater(() -> mainRoot.getChildren().add(pausedRoot));
+        record(mainRoot, pausedRoot, true);
     }
 
     static void setUnpaused() {
-        Platform.runLater(() -> mainRoot.getChildren().remove(pausedRoot));
+        record(mainRoot, pausedRoot, false);
     }
 
     static void remove(Node node) {
-        Platform.runLater(() -> gameRoot.getChildren().remove(node));
+        record(gameRoot, node, false);
     }
 
     static void setScore(int value) {
-        String val = String.valueOf(value);
-        Platform.runLater(() -> score.setText("Score: "+val));
+        synchronized (frameLock) {
+            openFrame.score = value;
+        }
     }
 
     static void setHighScore(int value) {
-        String val = String.valueOf(value);
-        Platform.runLater(() -> highScore.setText("High Score: "+val));
+        synchronized (frameLock) {
+            openFrame.highScore = value;
+        }
     }
 
     static void setGameOver() {
-        Platform.runLater(() -> {
-            if (first) {
-                logDebug("Resetting values");
-                first = false;
-                gameOverDisplay.setText("GAME OVER");
-                gameOverDisplay.setLayoutX(150);
-                gameOverDisplay.setLayoutY(160);
-                gameOverDesc.setText("Press any key to retry...");
-                gameOverDesc.setLayoutX(160);
-                gameOverDesc.setLayoutY(200);
-            }
-            mainRoot.getChildren().add(gameOverRoot);
-        });
+        synchronized (frameLock) {
+            openFrame.tasks.add(() -> {
+                if (first) {
+                    logDebug("Resetting values");
+                    first = false;
+                    gameOverDisplay.setText("GAME OVER");
+                    gameOverDisplay.setLayoutX(150);
+                    gameOverDisplay.setLayoutY(160);
+                    gameOverDesc.setText("Press any key to retry...");
+                    gameOverDesc.setLayoutX(160);
+                    gameOverDesc.setLayoutY(200);
+                }
+            });
+            openFrame.setChild(mainRoot, gameOverRoot, true);
+        }
     }
 
     static void setStartGame() {
-        Platform.runLater(() -> mainRoot.getChildren().remove(gameOverRoot));
+        record(mainRoot, gameOverRoot, false);
+    }
+
+    /**
+     * Runs a task on the FX thread when the current frame is applied
+     * @param task The task
+     */
+    static void runWithFrame(Runnable task) {
+        synchronized (frameLock) {
+            openFrame.tasks.add(task);
+        }
+    }
+
+    /**
+     * Sets the function called on the FX thread every pulse, at the display's refresh rate
+     * @param listener Given the pulse's timestamp in nanoseconds
+     */
+    static void setOnPulse(LongConsumer listener) {
+        pulseListener = listener;
+    }
+
+    /**
+     * Publishes every change made since the last flush as one frame. Frames published
+     * between two pulses are merged, and applied at the start of the next pulse, so the
+     * display changes at most once per rendered frame and nothing goes through the FX event queue.
+     */
+    static void flush() {
+        synchronized (frameLock) {
+            if (openFrame.isEmpty()) return;
+            openFrame.mergeInto(publishedFrame);
+            openFrame.clear();
+            framePending = true;
+        }
+    }
+
+    private static void record(Pane parent, Node node, boolean add) {
+        synchronized (frameLock) {
+            openFrame.setChild(parent, node, add);
+        }
+    }
+
+    // Runs on the FX thread, at the start of a pulse
+    private static void applyFrame() {
+        final Frame frame;
+        synchronized (frameLock) {
+            frame = publishedFrame;
+            publishedFrame = spareFrame;
+            spareFrame = frame;
+            framePending = false;
+        }
+        final Events.FrameApplied event = new Events.FrameApplied();
+        event.begin();
+        frame.apply();
+        event.end();
+        if (event.shouldCommit()) {
+            event.nodeChanges = frame.getNodeChanges();
+            event.tasks = frame.tasks.size();
+            event.commit();
+        }
+        frame.clear();
+    }
+
+    /**
+     * Every change to the display made in one frame. Changes are coalesced as they come in:
+     * for each node only the last add or remove is kept, and only the last score values.
+     * Entity positions aren't part of frames; they're interpolated every pulse instead.
+     */
+    private static final class Frame {
+        // Parent -> node -> added (true) or removed (false), in the order they were last changed
+        private final Map<Pane, LinkedHashMap<Node, Boolean>> children = new LinkedHashMap<Pane, LinkedHashMap<Node, Boolean>>();
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+        private int score = -1, highScore = -1; // -1 if unchanged
+
+        private void setChild(Pane parent, Node node, boolean add) {
+            final LinkedHashMap<Node, Boolean> changes = children.computeIfAbsent(parent, p -> new LinkedHashMap<Node, Boolean>());
+            changes.remove(node); // So the order reflects the last change
+            changes.put(node, add);
+        }
+
+        private void mergeInto(Frame target) {
+            for (Map.Entry<Pane, LinkedHashMap<Node, Boolean>> parent : children.entrySet()) {
+                for (Map.Entry<Node, Boolean> change : parent.getValue().entrySet()) {
+                    target.setChild(parent.getKey(), change.getKey(), change.getValue());
+                }
+            }
+            target.tasks.addAll(tasks);
+            if (score != -1) target.score = score;
+            if (highScore != -1) target.highScore = highScore;
+        }
+
+        private void apply() {
+            for (Map.Entry<Pane, LinkedHashMap<Node, Boolean>> parent : children.entrySet()) {
+                final List<Node> nodes = parent.getKey().getChildren();
+                for (Map.Entry<Node, Boolean> change : parent.getValue().entrySet()) {
+                    final Node node = change.getKey();
+                    // Re-adding moves the node to the top, like removing & adding it would
+                    if (node.getParent() == parent.getKey()) nodes.remove(node);
+                    if (change.getValue()) nodes.add(node);
+                }
+            }
+            for (Runnable task : tasks) task.run();
+            if (score != -1) Interface.score.setText("Score: "+score);
+            if (highScore != -1) Interface.highScore.setText("High Score: "+highScore);
+        }
+
+        private boolean isEmpty() {
+            for (LinkedHashMap<Node, Boolean> changes : children.values()) {
+                if (!changes.isEmpty()) return false;
+            }
+            return tasks.isEmpty() && score == -1 && highScore == -1;
+        }
+
+        private int getNodeChanges() {
+            int count = 0;
+            for (LinkedHashMap<Node, Boolean> changes : children.values()) count += changes.size();
+            return count;
+        }
+
+        private void clear() {
+            for (LinkedHashMap<Node, Boolean> changes : children.values()) changes.clear();
+            tasks.clear();
+            score = -1;
+            highScore = -1;
+        }
     }
 
     static void setOnKeyPressed(EventHandler<? super KeyEvent> eventHandle) {
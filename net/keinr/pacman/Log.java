@@ -0,0 +1,71 @@
+package net.keinr.pacman;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import net.keinr.util.Debug;
+
+/**
+ * Debug logging hooks for the whole game. Kept apart from {@link Main} so that
+ * the engine can log without pulling in JavaFX, e.g. when running headless.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Log {
+    private static final boolean DEBUG_ENABLED = false;
+    private static final int DEBUG_BUFFER = 8192; // How many debug messages can wait to be printed before new ones are dropped
+
+    private static final Debug debug = new Debug(DEBUG_ENABLED);
+
+    private Log() {}
+
+    /**
+     * Gets debug output going, if it's enabled
+     */
+    static void start() {
+        if (DEBUG_ENABLED) {
+            debug.setShorthand("^net\\.keinr\\.pacman\\.");
+            debug.startAsync(DEBUG_BUFFER, Debug.Overflow.DROP); // So printing doesn't throw off the timing of the game cycle
+            debug.log("Debug enabled");
+        }
+    }
+
+    /**
+     * Logs how long a startup phase took, and how long it's been since launch
+     * @param phase What was done
+     * @param start When the phase started, from System#nanoTime
+     */
+    static void logPhase(String phase, long start) {
+        if (DEBUG_ENABLED) {
+            final long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+            debug.logRouted(1, "{} took {}ms ({}ms since launch)", phase, (System.nanoTime()-start)/1000000, uptime);
+        }
+    }
+
+    // Checking DEBUG_ENABLED here too means that with it off, these compile to nothing,
+    // and the JIT can throw away the arguments (boxes, lambdas) at the call site
+
+    static void logDebug(String message) {
+        if (DEBUG_ENABLED) debug.logRouted(1, message);
+    }
+
+    static void logDebug(Supplier<String> message) {
+        if (DEBUG_ENABLED) debug.logRouted(1, message);
+    }
+
+    static void logDebug(String pattern, Object arg) {
+        if (DEBUG_ENABLED) debug.logRouted(1, pattern, arg);
+    }
+
+    static void logDebug(String pattern, Object arg1, Object arg2) {
+        if (DEBUG_ENABLED) debug.logRouted(1, pattern, arg1, arg2);
+    }
+
+    static void logDebug(String pattern, Object... args) {
+        if (DEBUG_ENABLED) debug.logRouted(1, pattern, args);
+    }
+
+    static void fDebug(Runnable function) {
+        if (DEBUG_ENABLED) debug.logFunctionRouted(1, function);
+    }
+}
@@ -2,36 +2,37 @@ package net.keinr.pacman;
 
 import javafx.application.Application;
 import javafx.stage.Stage;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import net.keinr.util.Debug;
-
 /**
  * Initialization (Main) class
  * @author Orion Musselman (KeinR)
  */
 
 public class Main extends Application {
-    private static final boolean DEBUG_ENABLED = false;
-    
-    private static final Debug debug = new Debug(DEBUG_ENABLED);
-
     @Override
     public void start(Stage stage) {
-        if (DEBUG_ENABLED) {
-            debug.setShorthand("^net\\.keinr\\.pacman\\.");
-            debug.log("Debug enabled");
+        Log.start();
+        // --seed=N makes the game play out the same way every time, --record=FILE saves it for Replay
+        final Map<String, String> options = getParameters().getNamed();
+        final long seed = options.containsKey("seed") ? Long.parseLong(options.get("seed")) : new Random().nextLong();
+        if (options.containsKey("record")) {
+            Engine.record(Paths.get(options.get("record")), seed);
+        } else if (options.containsKey("seed")) {
+            Engine.setSeed(seed);
         }
+        // Images decode in the background while the window & game load; whatever needs one first waits for it
+        Resource.preload();
+        final long start = System.nanoTime();
         Interface.setup(stage);
-        Executors.newSingleThreadExecutor().execute(() -> Engine.setup());
-    }
-
-    static void logDebug(String message) {
-        debug.logRouted(message, 1);
-    }
-
-    static void fDebug(Runnable function) {
-        debug.logFunctionRouted(function, 1);
+        Log.logPhase("Window setup", start);
+        final ExecutorService loader = Executors.newSingleThreadExecutor();
+        loader.execute(() -> Engine.setup(new Renderer()));
+        loader.shutdown(); // Only this one task, so let the thread die once it's done
     }
 
     public static void main(String[] args) { launch(args); }
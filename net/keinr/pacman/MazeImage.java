@@ -0,0 +1,121 @@
+package net.keinr.pacman;
+
+import java.util.Arrays;
+
+/**
+ * The walls & wall borders of a map, rasterized once into an ARGB pixel buffer.
+ * Borders are drawn on the wall side of every edge between an open tile and a wall,
+ * with runs of adjacent edges merged into one rectangle.
+ * Doesn't depend on JavaFX, so it can be built (and benchmarked) anywhere.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class MazeImage {
+    private static final double BORDER_WIDTH = 0.1; // Width of wall borders, as a fraction of a tile
+
+    final int width, height; // In pixels
+    final int[] pixels; // ARGB, row by row
+    private final double originX, originY; // Where the image's top left corner is, in map pixels
+    private int rectangles = 0;
+
+    private MazeImage(int width, int height, double originX, double originY) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width*height];
+        this.originX = originX;
+        this.originY = originY;
+    }
+
+    /**
+     * @param columns Width of the map in tiles
+     * @param rows Height of the map in tiles
+     * @param open Which tiles aren't walls, indexed by y*columns + x
+     * @param ratio Tile to pixel ratio
+     * @param wallColor ARGB color of walls
+     * @param borderColor ARGB color of wall borders
+     * @return The rendered maze
+     */
+    static MazeImage render(int columns, int rows, boolean[] open, double ratio, int wallColor, int borderColor) {
+        return render(columns, rows, open, 0, 0, columns, rows, ratio, wallColor, borderColor);
+    }
+
+    /**
+     * Renders part of a maze. The tiles around the part should be included in the open tiles
+     * so that borders along its edges come out right; they're used but not drawn.
+     * @param columns Width of the open tiles given, in tiles
+     * @param rows Height of the open tiles given, in tiles
+     * @param open Which tiles aren't walls, indexed by y*columns + x
+     * @param left Tile x of the part to draw
+     * @param top Tile y of the part to draw
+     * @param partColumns Width of the part to draw, in tiles
+     * @param partRows Height of the part to draw, in tiles
+     * @param ratio Tile to pixel ratio
+     * @param wallColor ARGB color of walls
+     * @param borderColor ARGB color of wall borders
+     * @return The rendered part of the maze
+     */
+    static MazeImage render(int columns, int rows, boolean[] open, int left, int top, int partColumns, int partRows,
+        double ratio, int wallColor, int borderColor) {
+        final MazeImage image = new MazeImage((int)Math.round(partColumns*ratio), (int)Math.round(partRows*ratio), left*ratio, top*ratio);
+        final double border = ratio*BORDER_WIDTH;
+
+        // Walls, merged into runs along each row
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                if (open[y*columns + x]) continue;
+                final int start = x;
+                while (x+1 < columns && !open[y*columns + x+1]) x++;
+                image.fill(start*ratio, y*ratio, (x+1-start)*ratio, ratio, wallColor);
+            }
+        }
+
+        // Vertical borders, on the right & left of open tiles, merged down each column
+        for (int x = 0; x < columns; x++) {
+            for (int side = -1; side <= 1; side += 2) {
+                final int wall = x+side;
+                if (wall < 0 || wall >= columns) continue;
+                for (int y = 0; y < rows; y++) {
+                    if (!edge(open, columns, x, y, wall, y)) continue;
+                    final int start = y;
+                    while (y+1 < rows && edge(open, columns, x, y+1, wall, y+1)) y++;
+                    image.fill(side > 0 ? wall*ratio : x*ratio-border, start*ratio, border, (y+1-start)*ratio, borderColor);
+                }
+            }
+        }
+
+        // Horizontal borders, below & above open tiles, merged along each row
+        for (int y = 0; y < rows; y++) {
+            for (int side = -1; side <= 1; side += 2) {
+                final int wall = y+side;
+                if (wall < 0 || wall >= rows) continue;
+                for (int x = 0; x < columns; x++) {
+                    if (!edge(open, columns, x, y, x, wall)) continue;
+                    final int start = x;
+                    while (x+1 < columns && edge(open, columns, x+1, y, x+1, wall)) x++;
+                    image.fill(start*ratio, side > 0 ? wall*ratio : y*ratio-border, (x+1-start)*ratio, border, borderColor);
+                }
+            }
+        }
+        return image;
+    }
+
+    // If (x, y) is open and (wx, wy) is a wall
+    private static boolean edge(boolean[] open, int columns, int x, int y, int wx, int wy) {
+        return open[y*columns + x] && !open[wy*columns + wx];
+    }
+
+    // Takes map pixels, and clips to the image
+    private void fill(double x, double y, double w, double h, int color) {
+        x -= originX;
+        y -= originY;
+        final int x0 = Math.max(0, (int)Math.round(x)), x1 = Math.min(width, (int)Math.round(x+w));
+        final int y0 = Math.max(0, (int)Math.round(y)), y1 = Math.min(height, (int)Math.round(y+h));
+        for (int row = y0; row < y1; row++) {
+            Arrays.fill(pixels, row*width + x0, row*width + Math.max(x0, x1), color);
+        }
+        rectangles++;
+    }
+
+    /** @return How many rectangles were drawn after merging */
+    int getRectangleCount() { return rectangles; }
+}
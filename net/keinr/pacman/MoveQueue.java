@@ -0,0 +1,53 @@
+package net.keinr.pacman;
+
+/**
+ * Fixed size ring buffer of moves, one {@link Direction} per byte.
+ * Made once per ghost and reused for every path, so queueing & following moves allocates nothing.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class MoveQueue {
+    private final byte[] moves;
+    private final int mask;
+    private int head, size;
+
+    /**
+     * @param capacity The most moves that will ever be queued at once, rounded up to a power of two
+     */
+    MoveQueue(int capacity) {
+        final int length = Integer.highestOneBit(Math.max(1, capacity-1)) << 1;
+        this.moves = new byte[length];
+        this.mask = length-1;
+    }
+
+    /**
+     * Adds a move to the end
+     * @param direction The move
+     * @throws IllegalStateException If the queue is full
+     */
+    void add(int direction) {
+        if (size == moves.length) throw new IllegalStateException("Move queue is full ("+moves.length+" moves)");
+        moves[(head+size++) & mask] = (byte)direction;
+    }
+
+    /**
+     * Takes the next move off the front
+     * @return The move, or {@link Direction#NONE} if there aren't any
+     */
+    int poll() {
+        if (size == 0) return Direction.NONE;
+        final int direction = moves[head];
+        head = (head+1) & mask;
+        size--;
+        return direction;
+    }
+
+    /** @return If there are no moves queued */
+    boolean isEmpty() { return size == 0; }
+
+    /** Forgets every queued move */
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+}
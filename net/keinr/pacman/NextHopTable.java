@@ -0,0 +1,181 @@
+package net.keinr.pacman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static net.keinr.pacman.Log.logDebug;
+
+/**
+ * All-pairs shortest path table for a static map.
+ * For every pair of open tiles it stores the distance between them and the first move to make,
+ * so that following a path is a lookup per step instead of a search.
+ * Open tiles are numbered compactly, and the table is laid out as one row per target tile.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class NextHopTable {
+    private static final int MAGIC = 0x484f5053; // "HOPS"
+    private static final int VERSION = 1;
+    private static final String CACHE_SUFFIX = ".hops"; // Appended to the map file name to get the cache file
+    private static final byte NONE = (byte)Direction.NONE;
+
+    private final Grid grid;
+    private final int width, height, count;
+    private final int[] compact; // Grid index (y*width + x) -> open tile number, or -1 for walls
+    private final byte[] hops; // [target*count + from] -> Direction, or NONE
+    private final short[] distances; // [target*count + from] -> distance, or -1 if unreachable
+
+    private NextHopTable(Grid grid, byte[] hops, short[] distances) {
+        this.grid = grid;
+        this.width = grid.width;
+        this.height = grid.height;
+        this.compact = new int[width*height];
+        int n = 0;
+        for (int i = 0; i < compact.length; i++) {
+            compact[i] = grid.isOpen(i) ? n++ : -1;
+        }
+        this.count = n;
+        this.hops = hops != null ? hops : new byte[n*n];
+        this.distances = distances != null ? distances : new short[n*n];
+    }
+
+    /**
+     * Loads the table from the cache next to the map, or builds it (and caches it) if the
+     * cache is missing or was made from a different map image
+     * @param grid The map
+     * @param mapSource The image the map was read from
+     * @param hash SHA-256 of the image, from its {@link CompiledMap}. If null, the cache isn't used.
+     * @return The table
+     */
+    static NextHopTable load(Grid grid, Path mapSource, byte[] hash) {
+        final Path cache = Paths.get(mapSource.toString()+CACHE_SUFFIX);
+        try {
+            NextHopTable table = hash != null ? read(cache, hash, grid) : null;
+            if (table != null) {
+                logDebug("Loaded next hop table from {}", cache);
+                return table;
+            }
+        } catch (NoSuchFileException e) {
+            // No cache yet, we'll make one
+        } catch (IOException e) {
+            Engine.warn("Could not read next hop table cache: "+e.toString());
+        }
+
+        final long start = System.nanoTime();
+        final NextHopTable table = build(grid);
+        logDebug("Built next hop table for {} tiles in {}ms", table.count, (System.nanoTime()-start)/1000000);
+
+        if (hash != null) {
+            try {
+                table.write(cache, hash);
+            } catch (IOException e) {
+                Engine.warn("Could not write next hop table cache: "+e.toString());
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Builds the table, running one breadth first search per target tile in parallel
+     * @param grid The map
+     * @return The table
+     */
+    static NextHopTable build(Grid grid) {
+        final NextHopTable table = new NextHopTable(grid, null, null);
+        final int[] tiles = new int[table.count]; // Open tile number -> grid index
+        for (int i = 0; i < table.compact.length; i++) {
+            if (table.compact[i] != -1) tiles[table.compact[i]] = i;
+        }
+        IntStream.range(0, table.count).parallel().forEach(target -> table.search(target, tiles[target]));
+        return table;
+    }
+
+    // Fills in the row for one target by searching outwards from it. When a tile is first reached from
+    // a neighbour, that neighbour is one step closer to the target, so the move towards it is the next hop.
+    private void search(int target, int origin) {
+        final int row = target*count;
+        Arrays.fill(hops, row, row+count, NONE);
+        Arrays.fill(distances, row, row+count, (short)-1);
+        distances[row+target] = 0;
+
+        final int[] queue = new int[count];
+        int head = 0, tail = 0;
+        queue[tail++] = origin;
+        while (head < tail) {
+            final int focus = queue[head++];
+            final int exits = grid.exits(focus);
+            final short next = (short)(distances[row+compact[focus]] + 1);
+            // The move recorded is from the neighbour back towards focus
+            if ((exits & Grid.DOWN) != 0) tail = visit(row, focus+width, Direction.UP, next, queue, tail); // neighbour below moves UP
+            if ((exits & Grid.UP) != 0) tail = visit(row, focus-width, Direction.DOWN, next, queue, tail); // neighbour above moves DOWN
+            if ((exits & Grid.RIGHT) != 0) tail = visit(row, focus+1, Direction.LEFT, next, queue, tail); // neighbour right moves LEFT
+            if ((exits & Grid.LEFT) != 0) tail = visit(row, focus-1, Direction.RIGHT, next, queue, tail); // neighbour left moves RIGHT
+        }
+    }
+
+    private int visit(int row, int tile, int move, short distance, int[] queue, int tail) {
+        final int from = compact[tile];
+        if (distances[row+from] != -1) return tail;
+        distances[row+from] = distance;
+        hops[row+from] = (byte)move;
+        queue[tail] = tile;
+        return tail+1;
+    }
+
+    /**
+     * @return The distance in moves between two tiles, or -1 if there's no path or either is a wall
+     */
+    int distance(int x, int y, int tx, int ty) {
+        final int from = compact[y*width + x], target = compact[ty*width + tx];
+        if (from == -1 || target == -1) return -1;
+        return distances[target*count + from];
+    }
+
+    /**
+     * @return The first move to make to get from one tile to another, or {@link Direction#NONE} if there isn't one
+     */
+    int next(int x, int y, int tx, int ty) {
+        final int from = compact[y*width + x], target = compact[ty*width + tx];
+        if (from == -1 || target == -1) return Direction.NONE;
+        return hops[target*count + from];
+    }
+
+    private static NextHopTable read(Path cache, byte[] hash, Grid grid) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            final byte[] cachedHash = new byte[in.readInt()];
+            in.readFully(cachedHash);
+            if (!Arrays.equals(hash, cachedHash) || in.readInt() != grid.width || in.readInt() != grid.height) return null;
+            final int size = in.readInt();
+            final byte[] hops = new byte[size];
+            final short[] distances = new short[size];
+            in.readFully(hops);
+            for (int i = 0; i < size; i++) distances[i] = in.readShort();
+            final NextHopTable table = new NextHopTable(grid, hops, distances);
+            return size == table.count*table.count ? table : null;
+        }
+    }
+
+    private void write(Path cache, byte[] hash) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(cache)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(hash.length);
+            out.write(hash);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(hops.length);
+            out.write(hops);
+            for (short distance : distances) out.writeShort(distance);
+        }
+    }
+}
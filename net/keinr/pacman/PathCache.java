@@ -0,0 +1,112 @@
+package net.keinr.pacman;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Least recently used cache of path search results, keyed by start & target tile.
+ * Ghosts often ask for the same path (stacked spawns, shared wander targets, dead ghosts
+ * going home), so identical requests, including ones in the same tick, only search once.
+ * The map is static, so a cached path never goes stale.
+ * Safe to use from several threads: each one searches with its own pathfinder, outside the lock,
+ * so two threads asking for the same uncached path at once may both search for it.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class PathCache {
+    private final int capacity, width;
+    private final ThreadLocal<PathSearcher> pathfinders;
+    private final Map<Long, Path> paths;
+    private long hits, misses, evictions, merged;
+
+    /**
+     * @param capacity Max number of paths to keep
+     * @param width Width of the grid, used to index tiles
+     * @param pathfinders Makes the pathfinders used to find paths that aren't cached, one per thread
+     */
+    PathCache(int capacity, int width, Supplier<PathSearcher> pathfinders) {
+        this.capacity = capacity;
+        this.width = width;
+        this.pathfinders = ThreadLocal.withInitial(pathfinders);
+        this.paths = new LinkedHashMap<Long, Path>(capacity*4/3+1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Path> eldest) {
+                if (size() > PathCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets a path, searching for it only if it isn't cached
+     * @param x Start grid x
+     * @param y Start grid y
+     * @param tx Target grid x
+     * @param ty Target grid y
+     * @param iterationCap Max number of tiles to expand if a search is needed
+     * @param tick The current tick, used to tell repeated requests within a tick apart from older hits
+     * @return The path
+     */
+    Path find(int x, int y, int tx, int ty, int iterationCap, long tick) {
+        final Long key = ((long)(y*width + x) << 32) | (ty*width + tx);
+        synchronized (paths) {
+            final Path path = paths.get(key);
+            if (path != null) {
+                if (path.tick == tick) {
+                    merged++;
+                } else {
+                    hits++;
+                }
+                return path;
+            }
+            misses++;
+        }
+        final PathSearcher pathfinder = pathfinders.get();
+        final long start = Profiler.start();
+        final int length = pathfinder.find(x, y, tx, ty, iterationCap);
+        Profiler.endSearch(start, pathfinder);
+        final byte[] moves = new byte[length];
+        for (int i = 0; i < length; i++) moves[i] = (byte)pathfinder.step(i);
+        final Path path = new Path(moves, pathfinder.isContingency(), pathfinder.getIterations(), tick);
+        synchronized (paths) {
+            paths.put(key, path); // Searches are deterministic, so if another thread got here first it found the same path
+        }
+        return path;
+    }
+
+    /** @return Number of requests answered by a path cached in an earlier tick */
+    long getHits() { synchronized (paths) { return hits; } }
+
+    /** @return Number of requests that had to search */
+    long getMisses() { synchronized (paths) { return misses; } }
+
+    /** @return Number of paths dropped to make room */
+    long getEvictions() { synchronized (paths) { return evictions; } }
+
+    /** @return Number of requests merged with an identical one from the same tick */
+    long getMerged() { synchronized (paths) { return merged; } }
+
+    /** @return Number of paths currently cached */
+    int size() { synchronized (paths) { return paths.size(); } }
+
+    /**
+     * A path found by a search. Shared between everyone that asks for it, so don't modify.
+     */
+    static final class Path {
+        final byte[] moves; // Directions
+        final boolean contingency; // If the target couldn't be reached, and this goes to the closest tile instead
+        final int iterations; // Nodes expanded when searching
+        private final long tick; // Tick the path was found in
+
+        private Path(byte[] moves, boolean contingency, int iterations, long tick) {
+            this.moves = moves;
+            this.contingency = contingency;
+            this.iterations = iterations;
+            this.tick = tick;
+        }
+    }
+}
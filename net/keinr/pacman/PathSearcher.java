@@ -0,0 +1,42 @@
+package net.keinr.pacman;
+
+/**
+ * Something that finds paths between tiles, for the {@link PathCache}.
+ * Searchers keep the result of their last search, so they're never thread safe;
+ * each thread that searches needs its own instance.
+ * @author Orion Musselman (KeinR)
+ */
+
+interface PathSearcher {
+
+    /**
+     * Finds a path from one tile to another. If the target can't be reached, a path
+     * towards the closest tile that could be is given instead.
+     * The path can then be read with {@link #step(int)}.
+     * @param x Start grid x
+     * @param y Start grid y
+     * @param tx Target grid x
+     * @param ty Target grid y
+     * @param iterationCap Max number of tiles to expand
+     * @return The length of the path
+     */
+    int find(int x, int y, int tx, int ty, int iterationCap);
+
+    /**
+     * @param index Index of the move, from the start of the path
+     * @return The move to make, a {@link Direction}
+     */
+    int step(int index);
+
+    /** @return Length of the last path found */
+    int getPathLength();
+
+    /** @return How many nodes the last search expanded */
+    int getIterations();
+
+    /** @return How many nodes the last search added to the open set */
+    int getExpansions();
+
+    /** @return If the last search gave up and pathed to the closest node instead */
+    boolean isContingency();
+}
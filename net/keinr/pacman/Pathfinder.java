@@ -0,0 +1,187 @@
+package net.keinr.pacman;
+
+import java.util.Arrays;
+
+/**
+ * A* over a grid of tiles, using an indexed binary heap for the open set.
+ * Tiles are addressed by their index (y*width + x), and all scratch space is
+ * allocated once up front and reused, so a search allocates nothing.
+ * Not thread safe; each thread that searches needs its own instance.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Pathfinder implements PathSearcher {
+    private final int width;
+    private final Grid grid;
+
+    // Scratch space, indexed by tile. A tile's entries are only valid if its stamp matches the current generation,
+    // which saves us from clearing everything before each search.
+    private final int[] g, f, h, parent, heapIndex, seen, closed;
+    private final int[] heap;
+    private int heapSize, generation;
+
+    // Result of the last search
+    private final byte[] path; // Directions
+    private int pathLength, iterations, expansions;
+    private boolean contingency;
+
+    /**
+     * @param grid The map to search
+     */
+    Pathfinder(Grid grid) {
+        final int size = grid.width*grid.height;
+        this.width = grid.width;
+        this.grid = grid;
+        this.g = new int[size];
+        this.f = new int[size];
+        this.h = new int[size];
+        this.parent = new int[size];
+        this.heapIndex = new int[size];
+        this.seen = new int[size];
+        this.closed = new int[size];
+        this.heap = new int[size];
+        this.path = new byte[size];
+    }
+
+    /**
+     * Finds a path from one tile to another. If the target can't be reached within the iteration cap
+     * (or at all), a path to the explored tile closest to the target is given instead.
+     */
+    @Override
+    public int find(int x, int y, int tx, int ty, int iterationCap) {
+        if (++generation == 0) { // Wrapped around, old stamps could now look current
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
+        }
+        heapSize = 0;
+        expansions = 0;
+
+        final int start = y*width + x, target = ty*width + tx;
+        open(start, -1, 0, Math.abs(x-tx)+Math.abs(y-ty));
+
+        int result = -1, closest = start;
+        iterations = 0;
+        while (heapSize > 0 && iterations < iterationCap) {
+            iterations++;
+            final int focus = pop();
+            closed[focus] = generation;
+
+            if (focus == target) { // Target aquired
+                result = focus;
+                break;
+            }
+            if (h[focus] < h[closest]) closest = focus;
+
+            // Gen chillren
+            final int fx = focus % width, fy = focus / width, cost = g[focus] + 1, exits = grid.exits(focus);
+            if ((exits & Grid.UP) != 0) relax(focus-width, focus, cost, fx, fy-1, tx, ty);
+            if ((exits & Grid.DOWN) != 0) relax(focus+width, focus, cost, fx, fy+1, tx, ty);
+            if ((exits & Grid.LEFT) != 0) relax(focus-1, focus, cost, fx-1, fy, tx, ty);
+            if ((exits & Grid.RIGHT) != 0) relax(focus+1, focus, cost, fx+1, fy, tx, ty);
+        }
+
+        // If we didn't reach the target before the iteration cap was hit, or there's no path, just get the closest one
+        contingency = result == -1;
+        if (contingency) result = closest;
+
+        // Walk back to the start to get the length, then again to fill in the moves back to front
+        pathLength = 0;
+        for (int i = result; parent[i] != -1; i = parent[i]) pathLength++;
+        int n = pathLength;
+        for (int i = result; parent[i] != -1; i = parent[i]) {
+            path[--n] = (byte)direction(parent[i], i);
+        }
+        return pathLength;
+    }
+
+    @Override
+    public int step(int index) { return path[index]; }
+
+    @Override
+    public int getPathLength() { return pathLength; }
+
+    @Override
+    public int getIterations() { return iterations; }
+
+    @Override
+    public int getExpansions() { return expansions; }
+
+    @Override
+    public boolean isContingency() { return contingency; }
+
+    private void relax(int tile, int from, int cost, int x, int y, int tx, int ty) {
+        if (closed[tile] == generation) return;
+        if (seen[tile] != generation) {
+            open(tile, from, cost, Math.abs(x-tx)+Math.abs(y-ty));
+        } else if (cost < g[tile]) { // Allow cheaper nodes to steal children from other nodes
+            g[tile] = cost;
+            f[tile] = cost + h[tile];
+            parent[tile] = from;
+            siftUp(heapIndex[tile]);
+        }
+    }
+
+    private void open(int tile, int from, int cost, int heuristic) {
+        seen[tile] = generation;
+        expansions++;
+        g[tile] = cost;
+        h[tile] = heuristic;
+        f[tile] = cost + heuristic;
+        parent[tile] = from;
+        heap[heapSize] = tile;
+        heapIndex[tile] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    private int pop() {
+        final int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    // Lower f first, then lower h so ties go to the tile closer to the target
+    private boolean before(int a, int b) {
+        return f[a] < f[b] || (f[a] == f[b] && h[a] < h[b]);
+    }
+
+    private void siftUp(int i) {
+        final int tile = heap[i];
+        while (i > 0) {
+            final int up = (i-1) >> 1;
+            if (!before(tile, heap[up])) break;
+            heap[i] = heap[up];
+            heapIndex[heap[i]] = i;
+            i = up;
+        }
+        heap[i] = tile;
+        heapIndex[tile] = i;
+    }
+
+    private void siftDown(int i) {
+        final int tile = heap[i];
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= heapSize) break;
+            if (child+1 < heapSize && before(heap[child+1], heap[child])) child++;
+            if (!before(heap[child], tile)) break;
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = tile;
+        heapIndex[tile] = i;
+    }
+
+    private int direction(int from, int to) {
+        final int d = to - from;
+        if (d == -width) return Direction.UP;
+        if (d == width) return Direction.DOWN;
+        return d == -1 ? Direction.LEFT : Direction.RIGHT;
+    }
+}
@@ -0,0 +1,175 @@
+package net.keinr.pacman;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measures each part of a game tick into histograms, published over JMX as {@link ProfilerMXBean}.
+ * Off unless the JVM is started with <code>-Dpacman.profile=true</code>. Every hook checks {@link #ENABLED}
+ * first, and as it's a static final the JIT folds the checks away, so when off the hooks cost nothing.
+ * Hooks can be called from any thread.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Profiler implements ProfilerMXBean {
+    static final boolean ENABLED = Boolean.getBoolean("pacman.profile");
+    private static final String NAME = "net.keinr.pacman:type=Profiler";
+
+    // Times are in nanoseconds
+    static final Histogram TICK = new Histogram(); // The whole tick
+    static final Histogram PLAYER = new Histogram(); // Moving & turning the player, and updating the distance field
+    static final Histogram GHOSTS = new Histogram(); // All three ghost phases together
+    static final Histogram GHOST_SENSE = new Histogram(); // One ghost's sense phase
+    static final Histogram GHOST_DECIDE = new Histogram(); // One ghost's decide phase
+    static final Histogram GHOST_PLAN = new Histogram(); // One ghost's plan phase, which includes its path search
+    static final Histogram COLLISIONS = new Histogram();
+    static final Histogram SUPERMODE = new Histogram(); // Counting down super mode, and ending it
+    static final Histogram VIEW = new Histogram(); // Sending the tick's changes to the view
+    static final Histogram SEARCH = new Histogram(); // One path search
+    private static final Histogram ITERATIONS = new Histogram(); // Nodes expanded per search
+    private static final Histogram EXPANSIONS = new Histogram(); // Nodes added to the open set per search
+
+    private static final LongAdder overruns = new LongAdder(), contingencies = new LongAdder();
+    private static volatile long resetTime = System.nanoTime();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Profiler(), new ObjectName(NAME));
+            } catch (JMException e) {
+                Engine.warn("Could not register profiler: "+e.toString());
+            }
+        }
+    }
+
+    private Profiler() {}
+
+    /**
+     * @return The time to pass to {@link #end}, or 0 if profiling is off
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since a {@link #start()}
+     * @param histogram Where to record it
+     * @param start What start() gave
+     */
+    static void end(Histogram histogram, long start) {
+        if (ENABLED) histogram.record(System.nanoTime()-start);
+    }
+
+    /**
+     * Records a whole tick
+     * @param start What start() gave at the beginning of the tick
+     * @param interval How long a tick is allowed to take, in milliseconds
+     */
+    static void endTick(long start, int interval) {
+        if (ENABLED) {
+            final long time = System.nanoTime()-start;
+            TICK.record(time);
+            if (time > interval*1000000L) overruns.increment();
+        }
+    }
+
+    /**
+     * Records a path search
+     * @param start What start() gave before searching
+     * @param pathfinder The searcher that did the search
+     */
+    static void endSearch(long start, PathSearcher pathfinder) {
+        if (ENABLED) {
+            SEARCH.record(System.nanoTime()-start);
+            ITERATIONS.record(pathfinder.getIterations());
+            EXPANSIONS.record(pathfinder.getExpansions());
+            if (pathfinder.isContingency()) contingencies.increment();
+        }
+    }
+
+    @Override
+    public long getTicks() { return TICK.getCount(); }
+
+    @Override
+    public double getTickRate() {
+        return TICK.getCount() / ((System.nanoTime()-resetTime) / 1e9);
+    }
+
+    @Override
+    public double getTickP50Micros() { return TICK.getPercentile(50) / 1e3; }
+
+    @Override
+    public double getTickP99Micros() { return TICK.getPercentile(99) / 1e3; }
+
+    @Override
+    public double getTickMaxMicros() { return TICK.getMax() / 1e3; }
+
+    @Override
+    public long getOverruns() { return overruns.sum(); }
+
+    @Override
+    public long getSearches() { return SEARCH.getCount(); }
+
+    @Override
+    public long getContingencies() { return contingencies.sum(); }
+
+    @Override
+    public Map<String, Phase> getPhases() {
+        final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+        phases.put("tick", phase(TICK, "us", 1e3));
+        phases.put("player", phase(PLAYER, "us", 1e3));
+        phases.put("ghosts", phase(GHOSTS, "us", 1e3));
+        phases.put("ghost.sense", phase(GHOST_SENSE, "us", 1e3));
+        phases.put("ghost.decide", phase(GHOST_DECIDE, "us", 1e3));
+        phases.put("ghost.plan", phase(GHOST_PLAN, "us", 1e3));
+        phases.put("collisions", phase(COLLISIONS, "us", 1e3));
+        phases.put("supermode", phase(SUPERMODE, "us", 1e3));
+        phases.put("view", phase(VIEW, "us", 1e3));
+        phases.put("search", phase(SEARCH, "us", 1e3));
+        phases.put("search.iterations", phase(ITERATIONS, "nodes", 1));
+        phases.put("search.expansions", phase(EXPANSIONS, "nodes", 1));
+        return phases;
+    }
+
+    @Override
+    public String report() {
+        final StringBuilder report = new StringBuilder(String.format(
+            "%d ticks (%.0f/s), %d overruns, %d searches, %d contingencies%n",
+            getTicks(), getTickRate(), getOverruns(), getSearches(), getContingencies()));
+        report.append(String.format("%-18s %10s %10s %10s %10s %10s%n", "", "count", "mean", "p50", "p99", "max"));
+        for (Map.Entry<String, Phase> entry : getPhases().entrySet()) {
+            final Phase phase = entry.getValue();
+            report.append(String.format("%-18s %10d %10.1f %10.1f %10.1f %10.1f %s%n", entry.getKey(),
+                phase.getCount(), phase.getMean(), phase.getP50(), phase.getP99(), phase.getMax(), phase.getUnit()));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : new Histogram[] {
+            TICK, PLAYER, GHOSTS, GHOST_SENSE, GHOST_DECIDE, GHOST_PLAN, COLLISIONS, SUPERMODE, VIEW, SEARCH, ITERATIONS, EXPANSIONS
+        }) {
+            histogram.reset();
+        }
+        overruns.reset();
+        contingencies.reset();
+        resetTime = System.nanoTime();
+    }
+
+    /**
+     * @return The report, for printing when not using JMX
+     */
+    static String summary() {
+        return new Profiler().report();
+    }
+
+    private static Phase phase(Histogram histogram, String unit, double scale) {
+        return new Phase(unit, histogram.getCount(), histogram.getMean()/scale,
+            histogram.getPercentile(50)/scale, histogram.getPercentile(99)/scale, histogram.getMax()/scale);
+    }
+}
@@ -0,0 +1,70 @@
+package net.keinr.pacman;
+
+import java.util.Map;
+
+/**
+ * Where the engine's time goes, as seen over JMX (e.g. in jconsole) under "net.keinr.pacman:type=Profiler".
+ * Only registered when profiling is on; see {@link Profiler}.
+ * @author Orion Musselman (KeinR)
+ */
+
+public interface ProfilerMXBean {
+    /** @return Number of game ticks run since the last reset */
+    long getTicks();
+
+    /** @return Game ticks per second since the last reset */
+    double getTickRate();
+
+    /** @return Median time a tick took, in microseconds */
+    double getTickP50Micros();
+
+    /** @return 99th percentile time a tick took, in microseconds */
+    double getTickP99Micros();
+
+    /** @return Longest time a tick took, in microseconds */
+    double getTickMaxMicros();
+
+    /** @return Number of ticks that took longer than the tick interval */
+    long getOverruns();
+
+    /** @return Number of path searches run (paths served from the cache don't count) */
+    long getSearches();
+
+    /** @return Number of path searches that couldn't reach their target and went to the closest node instead */
+    long getContingencies();
+
+    /** @return Stats for every measured part of a tick, by name */
+    Map<String, Phase> getPhases();
+
+    /** @return Everything, formatted as a table */
+    String report();
+
+    /** Starts measuring from scratch */
+    void reset();
+
+    /**
+     * Summary of one histogram
+     */
+    final class Phase {
+        private final String unit;
+        private final long count;
+        private final double mean, p50, p99, max;
+
+        Phase(String unit, long count, double mean, double p50, double p99, double max) {
+            this.unit = unit;
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        /** @return What the values are measured in */
+        public String getUnit() { return unit; }
+        public long getCount() { return count; }
+        public double getMean() { return mean; }
+        public double getP50() { return p50; }
+        public double getP99() { return p99; }
+        public double getMax() { return max; }
+    }
+}
@@ -0,0 +1,110 @@
+package net.keinr.pacman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Everything needed to replay a game exactly: the seed, the number of ghosts, and every key press
+ * along with the cycle it was applied in. A checksum of the game state after every cycle is kept too,
+ * so a replay can tell exactly where it stopped matching.
+ * Cycles are counted from 1, the first cycle after the game was loaded.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Recording {
+    private static final int MAGIC = 0x5245504c; // "REPL"
+    private static final int VERSION = 2;
+
+    final long seed;
+    final int ghostCount;
+    private long[] keyCycles = new long[16];
+    private byte[] keys = new byte[16]; // Engine inputs
+    private int keyCount = 0;
+    private long[] checksums = new long[1024]; // [cycle-1] -> checksum after it
+    private int cycles = 0;
+
+    /**
+     * @param seed Seed the game was loaded with
+     * @param ghostCount How many ghosts the game was loaded with
+     */
+    Recording(long seed, int ghostCount) {
+        this.seed = seed;
+        this.ghostCount = ghostCount;
+    }
+
+    /**
+     * Adds a key press
+     * @param cycle The cycle the key was applied in
+     * @param key The key, as given to Engine#keyPressed
+     */
+    void addKey(long cycle, int key) {
+        if (keyCount == keys.length) {
+            keyCycles = Arrays.copyOf(keyCycles, keyCount*2);
+            keys = Arrays.copyOf(keys, keyCount*2);
+        }
+        keyCycles[keyCount] = cycle;
+        keys[keyCount++] = (byte)key;
+    }
+
+    /**
+     * Adds the checksum for the next cycle
+     * @param checksum Checksum of the game state after the cycle
+     */
+    void addChecksum(long checksum) {
+        if (cycles == checksums.length) checksums = Arrays.copyOf(checksums, cycles*2);
+        checksums[cycles++] = checksum;
+    }
+
+    /** @return Number of cycles recorded */
+    int getCycles() { return cycles; }
+
+    /** @return Checksum of the game state after a cycle */
+    long getChecksum(long cycle) { return checksums[(int)cycle-1]; }
+
+    /** @return Number of key presses recorded */
+    int getKeyCount() { return keyCount; }
+
+    /** @return The cycle a key press was applied in */
+    long getKeyCycle(int key) { return keyCycles[key]; }
+
+    /** @return The key that was pressed */
+    int getKey(int key) { return keys[key]; }
+
+    static Recording read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a recording, or from a different version: "+file);
+            final Recording recording = new Recording(in.readLong(), in.readInt());
+            final int keyCount = in.readInt();
+            for (int i = 0; i < keyCount; i++) {
+                recording.addKey(in.readLong(), in.readByte());
+            }
+            final int cycles = in.readInt();
+            for (int i = 0; i < cycles; i++) {
+                recording.addChecksum(in.readLong());
+            }
+            return recording;
+        }
+    }
+
+    void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seed);
+            out.writeInt(ghostCount);
+            out.writeInt(keyCount);
+            for (int i = 0; i < keyCount; i++) {
+                out.writeLong(keyCycles[i]);
+                out.writeByte(keys[i]);
+            }
+            out.writeInt(cycles);
+            for (int i = 0; i < cycles; i++) out.writeLong(checksums[i]);
+        }
+    }
+}
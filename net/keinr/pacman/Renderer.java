@@ -0,0 +1,382 @@
+package net.keinr.pacman;
+
+import javafx.scene.paint.Color;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.input.KeyCode;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.shape.Arc;
+import javafx.scene.shape.ArcType;
+
+import java.util.Arrays;
+
+import static net.keinr.pacman.Engine.RATIO;
+import static net.keinr.pacman.Engine.HALF_RATIO;
+import static net.keinr.pacman.Engine.SIXTH_RATIO;
+import static net.keinr.pacman.Engine.ENTITY_RADIUS;
+import static net.keinr.pacman.ChunkedMap.CHUNK_SHIFT;
+import static net.keinr.pacman.ChunkedMap.CHUNK_SIZE;
+
+/**
+ * JavaFX view of the engine: owns the scene nodes and only ever reads
+ * game state, never writes it.
+ * The view scrolls to follow the player, and the map is drawn in chunks,
+ * with nodes only for the chunks that can be seen.
+ * @author Orion Musselman (KeinR)
+ */
+
+class Renderer implements View {
+    // Moddable constants
+    private static final Color DOT_COLOR = Color.YELLOW; // Normal dot color
+    private static final Color DOT_COLOR_SUPER = Color.CYAN; // Super dot color
+    private static final int WALL_COLOR = 0xff0d0083; // ARGB wall color
+    private static final int WALL_BORDER_COLOR = 0xff464646; // ARGB color of the edges where walls meet open tiles
+
+    // Tile kinds
+    private static final byte WALL = 0, DOT = 1, POWER_DOT = 2;
+
+    private final Arc playerDisplay = new Arc(-10, -10, ENTITY_RADIUS, ENTITY_RADIUS, 40, 300);
+
+    // Dot changes since the last flush, as tile index << 1 | visible
+    private long[] dirtyDots = new long[64];
+    private int dirtyDotCount = 0;
+    private boolean redrawAllDots = false;
+    private GhostSprite[] ghosts = new GhostSprite[0];
+    private double playerAngle = 40; // Last direction the player faced, kept when the player hasn't moved yet
+
+    private volatile Snapshot latest; // Published by the engine every tick
+    private Snapshot previous, current; // The two being interpolated between, only touched on the FX thread
+
+    // The map as last loaded, only touched on the FX thread
+    private int mapWidth, mapHeight, chunkColumns, chunkRows;
+    private byte[] tiles = new byte[0]; // Tile index -> kind
+    private long[] hiddenDots = new long[0]; // Bit per tile, set if its dot has been picked up
+    private ChunkView[] chunks = new ChunkView[0]; // Chunk index -> nodes, or null if it's out of view
+    private int viewLeft, viewTop, viewRight = -1, viewBottom = -1; // Chunks in view, inclusive
+    private double scrollX = -1, scrollY = -1;
+    private volatile long mapLoadedTime = -1; // For logging the time to the first frame after a load, -1 once it's been logged
+
+    Renderer() {
+        Interface.setOnKeyPressed(e -> Engine.keyPressed(input(e.getCode())));
+        Interface.setOnPulse(this::interpolate);
+    }
+
+    // The engine doesn't know about JavaFX keys, so they're translated here
+    private static int input(KeyCode code) {
+        switch (code) {
+            case UP: return Direction.UP;
+            case DOWN: return Direction.DOWN;
+            case LEFT: return Direction.LEFT;
+            case RIGHT: return Direction.RIGHT;
+            case P: return Engine.PAUSE;
+            default: return Engine.OTHER_KEY;
+        }
+    }
+
+    @Override
+    public void mapLoaded() {
+        // Only the tiles are copied; chunks are drawn from them when they come into view
+        final int width = Engine.getMapWidth(), height = Engine.getMapHeight();
+        final byte[] kinds = new byte[width*height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (Engine.isOpen(x, y)) kinds[y*width + x] = Engine.isPowerDot(x, y) ? POWER_DOT : DOT;
+            }
+        }
+        Interface.runWithFrame(() -> {
+            for (ChunkView chunk : chunks) {
+                if (chunk != null) Interface.hideChunk(chunk.maze, chunk.dots);
+            }
+            mapWidth = width;
+            mapHeight = height;
+            chunkColumns = (width+CHUNK_SIZE-1) >> CHUNK_SHIFT;
+            chunkRows = (height+CHUNK_SIZE-1) >> CHUNK_SHIFT;
+            tiles = kinds;
+            hiddenDots = new long[(width*height+63)/64];
+            chunks = new ChunkView[chunkColumns*chunkRows];
+            viewLeft = viewTop = 0;
+            viewRight = viewBottom = -1;
+            scrollX = scrollY = -1;
+        });
+        redrawAllDots = true;
+
+        ghosts = new GhostSprite[Engine.getGhostCount()];
+        for (int i = 0; i < ghosts.length; i++) {
+            ghosts[i] = new GhostSprite();
+        }
+
+        mapLoadedTime = System.nanoTime();
+        playerDisplay.setId("player");
+        playerDisplay.setType(ArcType.ROUND);
+        Interface.addEntity(playerDisplay);
+        update(); // So the map can be drawn before the first tick
+    }
+
+    @Override
+    public void update() {
+        latest = Engine.snapshot();
+    }
+
+    // Runs on the FX thread every pulse. Draws entities one tick behind, partway between
+    // the last two snapshots depending on how far we are into the current tick.
+    private void interpolate(long now) {
+        final Snapshot newest = latest;
+        if (newest == null) return;
+        if (mapLoadedTime != -1) {
+            Log.logPhase("First frame after the map loaded", mapLoadedTime);
+            mapLoadedTime = -1;
+        }
+        if (newest != current) {
+            previous = current != null ? current : newest;
+            current = newest;
+        }
+        final long interval = current.time - previous.time;
+        final double t = interval > 0 ? Math.min(1, Math.max(0, (double)(now - current.time) / interval)) : 1;
+
+        switch (current.playerDirection) {
+            case Direction.UP: playerAngle = 90; break;
+            case Direction.DOWN: playerAngle = 270; break;
+            case Direction.LEFT: playerAngle = 180; break;
+            case Direction.RIGHT: playerAngle = 0; break;
+        }
+        final double mouthOpen = lerp(previous.mouthOpen, current.mouthOpen, t);
+        final double playerX = lerp(previous.playerX, current.playerX, t), playerY = lerp(previous.playerY, current.playerY, t);
+        playerDisplay.setCenterX(playerX);
+        playerDisplay.setCenterY(playerY);
+        playerDisplay.setStartAngle(playerAngle+mouthOpen);
+        playerDisplay.setLength(360-(mouthOpen*2));
+
+        // Keep the player in the middle of the view, without going past the edges of the map
+        final double x = clamp(playerX - Interface.VIEW_WIDTH/2, mapWidth*RATIO - Interface.VIEW_WIDTH);
+        final double y = clamp(playerY - Interface.VIEW_HEIGHT/2, mapHeight*RATIO - Interface.VIEW_HEIGHT);
+        if (x != scrollX || y != scrollY) {
+            scrollX = x;
+            scrollY = y;
+            Interface.scrollTo(x, y);
+            updateChunks();
+        }
+
+        final boolean sameGhosts = previous.getGhostCount() == current.getGhostCount();
+        for (int i = 0; i < ghosts.length && i < current.getGhostCount(); i++) {
+            final double gx, gy;
+            if (sameGhosts) {
+                gx = lerp(previous.getGhostX(i), current.getGhostX(i), t);
+                gy = lerp(previous.getGhostY(i), current.getGhostY(i), t);
+            } else {
+                gx = current.getGhostX(i);
+                gy = current.getGhostY(i);
+            }
+            final boolean inView =
+                gx+ENTITY_RADIUS >= scrollX && gx-ENTITY_RADIUS <= scrollX+Interface.VIEW_WIDTH &&
+                gy+ENTITY_RADIUS >= scrollY && gy-ENTITY_RADIUS <= scrollY+Interface.VIEW_HEIGHT;
+            ghosts[i].setShown(inView);
+            if (inView) ghosts[i].setCenter(gx, gy);
+        }
+    }
+
+    // Jumps of over a tile (spawning) snap instead of sliding
+    private static double lerp(double from, double to, double t) {
+        return Math.abs(to-from) > RATIO ? to : from + (to-from)*t;
+    }
+
+    private static double clamp(double value, double max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    // Runs on the FX thread. Builds the chunks that came into view, and drops the ones that left it.
+    private void updateChunks() {
+        final double chunkPixels = CHUNK_SIZE*RATIO;
+        final int left = (int)(scrollX/chunkPixels), right = Math.min(chunkColumns-1, (int)((scrollX+Interface.VIEW_WIDTH)/chunkPixels));
+        final int top = (int)(scrollY/chunkPixels), bottom = Math.min(chunkRows-1, (int)((scrollY+Interface.VIEW_HEIGHT)/chunkPixels));
+        if (left == viewLeft && right == viewRight && top == viewTop && bottom == viewBottom) return;
+
+        for (int cy = viewTop; cy <= viewBottom; cy++) {
+            for (int cx = viewLeft; cx <= viewRight; cx++) {
+                if (cx >= left && cx <= right && cy >= top && cy <= bottom) continue;
+                final ChunkView chunk = chunks[cy*chunkColumns + cx];
+                Interface.hideChunk(chunk.maze, chunk.dots);
+                chunks[cy*chunkColumns + cx] = null;
+            }
+        }
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                if (chunks[cy*chunkColumns + cx] != null) continue;
+                final ChunkView chunk = new ChunkView(cx, cy);
+                chunks[cy*chunkColumns + cx] = chunk;
+                Interface.showChunk(chunk.maze, chunk.dots);
+            }
+        }
+        viewLeft = left;
+        viewRight = right;
+        viewTop = top;
+        viewBottom = bottom;
+    }
+
+    @Override
+    public void flush() {
+        if (redrawAllDots) {
+            final long[] collected = Engine.copyCollected();
+            Interface.runWithFrame(() -> {
+                if (collected.length != hiddenDots.length) return; // For a different map
+                hiddenDots = collected;
+                for (ChunkView chunk : chunks) {
+                    if (chunk != null) chunk.redraw();
+                }
+            });
+            redrawAllDots = false;
+            dirtyDotCount = 0;
+        } else if (dirtyDotCount > 0) {
+            final long[] dirty = Arrays.copyOf(dirtyDots, dirtyDotCount);
+            Interface.runWithFrame(() -> {
+                for (long dot : dirty) setDot((int)(dot >> 1), (dot & 1) != 0);
+            });
+            dirtyDotCount = 0;
+        }
+        Interface.flush();
+    }
+
+    // Runs on the FX thread
+    private void setDot(int index, boolean visible) {
+        if (index >= tiles.length) return;
+        if (visible) {
+            hiddenDots[index >> 6] &= ~(1L << index);
+        } else {
+            hiddenDots[index >> 6] |= 1L << index;
+        }
+        final int x = index % mapWidth, y = index / mapWidth;
+        final ChunkView chunk = chunks[(y >> CHUNK_SHIFT)*chunkColumns + (x >> CHUNK_SHIFT)];
+        if (chunk != null) chunk.drawDot(x, y);
+    }
+
+    @Override public void setScore(int value) { Interface.setScore(value); }
+    @Override public void setHighScore(int value) { Interface.setHighScore(value); }
+    @Override public void setGameOver() { Interface.setGameOver(); }
+    @Override public void setStartGame() { Interface.setStartGame(); }
+    @Override public void setPaused() { Interface.setPaused(); }
+    @Override public void setUnpaused() { Interface.setUnpaused(); }
+
+    @Override
+    public void setDotVisible(int x, int y, boolean visible) {
+        if (redrawAllDots) return; // Getting redrawn anyway
+        if (dirtyDotCount == dirtyDots.length) dirtyDots = Arrays.copyOf(dirtyDots, dirtyDotCount*2);
+        dirtyDots[dirtyDotCount++] = (long)(y*Engine.getMapWidth() + x) << 1 | (visible ? 1 : 0);
+    }
+
+    @Override
+    public void resetDots() {
+        redrawAllDots = true;
+    }
+
+    @Override public void setGhostNormal(int ghost) { ghosts[ghost].setNormal(); }
+    @Override public void setGhostScared(int ghost) { ghosts[ghost].setScared(); }
+    @Override public void setGhostDead(int ghost) { ghosts[ghost].setDead(); }
+
+    /**
+     * The nodes for one chunk of the map: its walls, drawn once into an image,
+     * and a canvas for its dots. Only exists while the chunk is in view.
+     */
+    private final class ChunkView {
+        private final int left, top, columns, rows; // In tiles
+        private final ImageView maze;
+        private final Canvas dots;
+
+        private ChunkView(int chunkX, int chunkY) {
+            left = chunkX << CHUNK_SHIFT;
+            top = chunkY << CHUNK_SHIFT;
+            columns = Math.min(CHUNK_SIZE, mapWidth-left);
+            rows = Math.min(CHUNK_SIZE, mapHeight-top);
+
+            // Include the tiles around the chunk, so the borders along its edges are right
+            final boolean[] open = new boolean[(columns+2)*(rows+2)];
+            for (int y = 0; y < rows+2; y++) {
+                for (int x = 0; x < columns+2; x++) {
+                    final int mx = left+x-1, my = top+y-1;
+                    open[y*(columns+2) + x] = mx >= 0 && my >= 0 && mx < mapWidth && my < mapHeight && tiles[my*mapWidth + mx] != WALL;
+                }
+            }
+            final MazeImage image = MazeImage.render(columns+2, rows+2, open, 1, 1, columns, rows, RATIO, WALL_COLOR, WALL_BORDER_COLOR);
+            final WritableImage pixels = new WritableImage(image.width, image.height);
+            pixels.getPixelWriter().setPixels(0, 0, image.width, image.height, PixelFormat.getIntArgbInstance(), image.pixels, 0, image.width);
+            maze = new ImageView(pixels);
+            maze.setMouseTransparent(true);
+            maze.setLayoutX(left*RATIO);
+            maze.setLayoutY(top*RATIO);
+
+            dots = new Canvas(columns*RATIO, rows*RATIO);
+            dots.setLayoutX(left*RATIO);
+            dots.setLayoutY(top*RATIO);
+            redraw();
+        }
+
+        private void redraw() {
+            dots.getGraphicsContext2D().clearRect(0, 0, dots.getWidth(), dots.getHeight());
+            for (int y = top; y < top+rows; y++) {
+                for (int x = left; x < left+columns; x++) {
+                    drawDot(x, y);
+                }
+            }
+        }
+
+        private void drawDot(int x, int y) {
+            final int index = y*mapWidth + x;
+            final double dx = (x-left)*RATIO, dy = (y-top)*RATIO;
+            final GraphicsContext graphics = dots.getGraphicsContext2D();
+            graphics.clearRect(dx, dy, RATIO, RATIO);
+            if (tiles[index] != WALL && (hiddenDots[index >> 6] & (1L << index)) == 0) {
+                graphics.setFill(tiles[index] == POWER_DOT ? DOT_COLOR_SUPER : DOT_COLOR);
+                graphics.fillOval(dx+HALF_RATIO-SIXTH_RATIO, dy+HALF_RATIO-SIXTH_RATIO, SIXTH_RATIO*2, SIXTH_RATIO*2);
+            }
+        }
+    }
+
+    private static class GhostSprite {
+        private final ImageView base = new ImageView(Resource.getImage("ghost"));
+        private final ImageView eyes = new ImageView(Resource.getImage("ghostEyes"));
+        private final ImageView scared = new ImageView(Resource.getImage("ghostScared"));
+        private boolean shown = true;
+        private GhostSprite() {
+            final double rad = ENTITY_RADIUS*2;
+            base.setFitHeight(rad);
+            base.setFitWidth(rad);
+            eyes.setFitHeight(rad);
+            eyes.setFitWidth(rad);
+            scared.setFitHeight(rad);
+            scared.setFitWidth(rad);
+            setCenter(-10, -10);
+            Interface.addAllEntity(base, eyes);
+        }
+        private void setNormal() {
+            reset();
+            Interface.addAllEntity(base, eyes);
+        }
+        private void setScared() {
+            reset();
+            Interface.addAllEntity(base, scared);
+        }
+        private void setDead() {
+            reset();
+            Interface.addAllEntity(eyes);
+        }
+        private void reset() {
+            Interface.removeAllEntity(scared, eyes, base);
+        }
+        // Ghosts out of view are hidden instead of moved
+        private void setShown(boolean value) {
+            if (value == shown) return;
+            shown = value;
+            base.setVisible(value);
+            eyes.setVisible(value);
+            scared.setVisible(value);
+        }
+        private void setCenter(double x, double y) {
+            base.setX(x-ENTITY_RADIUS);
+            eyes.setX(x-ENTITY_RADIUS);
+            scared.setX(x-ENTITY_RADIUS);
+            base.setY(y-ENTITY_RADIUS);
+            eyes.setY(y-ENTITY_RADIUS);
+            scared.setY(y-ENTITY_RADIUS);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package net.keinr.pacman;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Replays a game recorded with <code>--record</code> without a display, checking
+ * the game state against the recording after every cycle.
+ * The game is loaded & replayed twice in the same JVM, the way the game reloads when restarted,
+ * so that state left over from an earlier load gets caught too.
+ * Exits with 1 at the first cycle that doesn't match.
+ * Usage: java net.keinr.pacman.Replay &lt;recording&gt;
+ * @author Orion Musselman (KeinR)
+ */
+
+public final class Replay {
+    private static final int PASSES = 2;
+
+    private Replay() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java net.keinr.pacman.Replay <recording>");
+            System.exit(2);
+        }
+        final Recording recording = Recording.read(Paths.get(args[0]));
+
+        for (int pass = 1; pass <= PASSES; pass++) {
+            final long start = System.nanoTime();
+            final int cycle = replay(recording);
+            if (cycle != -1) {
+                System.out.printf("Replay diverged from the recording at cycle %d of %d, on load %d%n", cycle, recording.getCycles(), pass);
+                System.exit(1);
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Replayed %d cycles (%d key presses) in %.3fs, all matched%n", recording.getCycles(), recording.getKeyCount(), seconds);
+        }
+    }
+
+    /** @return The first cycle that didn't match, or -1 if they all did */
+    private static int replay(Recording recording) {
+        Engine.setSeed(recording.seed);
+        Engine.load(View.NONE, recording.ghostCount);
+
+        int key = 0;
+        for (int cycle = 1; cycle <= recording.getCycles(); cycle++) {
+            while (key < recording.getKeyCount() && recording.getKeyCycle(key) == cycle) {
+                Engine.keyPressed(recording.getKey(key++));
+            }
+            Engine.tick();
+            if (Engine.checksum() != recording.getChecksum(cycle)) return cycle;
+        }
+        return -1;
+    }
+}
@@ -1,40 +1,63 @@
 package net.keinr.pacman;
 
 import java.io.FileInputStream;
+import java.io.InputStream;
 import javafx.scene.image.Image;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.keinr.pacman.Log.logPhase;
 
 /**
- * Central location for loading & storing external resources
+ * Central location for loading & storing external resources.
+ * Images are decoded the first time they're asked for, or in the background after {@link #preload()}.
  * @author Orion Musselman (KeinR)
  */
 
 final class Resource {
-    private static final Map<String, Image> images = new HashMap<String, Image>();
-    private static final Map<String, FileInputStream> files = new HashMap<String, FileInputStream>();
+    private static final Map<String, String> imagePaths = new HashMap<String, String>();
+    private static final Map<String, CompletableFuture<Image>> images = new ConcurrentHashMap<String, CompletableFuture<Image>>();
     static {
+        imagePaths.put("ghost", "resources/images/sprites/ghost.png");
+        imagePaths.put("ghostEyes", "resources/images/sprites/eyes.png");
+        imagePaths.put("ghostScared", "resources/images/sprites/scared.png");
+        imagePaths.put("icon", "resources/images/icon.png");
+    }
+
+    /**
+     * Starts decoding every image in parallel, without waiting for them
+     */
+    static void preload() {
+        for (String name : imagePaths.keySet()) load(name);
+    }
+
+    static Image getImage(String name) {
+        if (!imagePaths.containsKey(name)) throw new ResourceNotFoundException(name, "image");
         try {
-            images.put("ghost", new Image(new FileInputStream("resources/images/sprites/ghost.png")));
-            images.put("ghostEyes", new Image(new FileInputStream("resources/images/sprites/eyes.png")));
-            images.put("ghostScared", new Image(new FileInputStream("resources/images/sprites/scared.png")));
-            images.put("icon", new Image(new FileInputStream("resources/images/icon.png")));
-            files.put("map", new FileInputStream("resources/images/map.png"));
-        } catch (IOException e) {
+            return load(name).join();
+        } catch (CompletionException e) {
             e.printStackTrace();
-            System.out.println("Error: could not load resource files");
+            System.out.println("Error: could not load resource file "+imagePaths.get(name));
+            throw new ResourceNotFoundException(name, "image");
         }
     }
-    static Image getImage(String name) {
-        Image image = images.get(name);
-        if (image == null) throw new ResourceNotFoundException(name, "image");
-        return image;
-    }
-    static FileInputStream getFile(String name) {
-        FileInputStream file = files.get(name);
-        if (file == null) throw new ResourceNotFoundException(name, "file");
-        return file;
+
+    private static CompletableFuture<Image> load(String name) {
+        return images.computeIfAbsent(name, key -> CompletableFuture.supplyAsync(() -> {
+            final long start = System.nanoTime();
+            try (InputStream in = new FileInputStream(imagePaths.get(key))) {
+                final Image image = new Image(in);
+                logPhase("Decoded image \""+key+"\"", start);
+                return image;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
     }
 
     // Doesn't quite meet the requirements for being an Error, but I don't intend on this being caught
@@ -44,5 +67,3 @@ final class Resource {
         }
     }
 }
-
-
@@ -0,0 +1,29 @@
+package net.keinr.pacman;
+
+/**
+ * Immutable copy of where everything was at the end of a tick.
+ * The engine publishes one per tick, and the display interpolates between the last two,
+ * so the tick rate & frame rate don't depend on each other.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class Snapshot {
+    final long tick, time; // Tick number, and System#nanoTime() when it was taken
+    final double playerX, playerY, mouthOpen;
+    final int playerDirection; // A Direction
+    private final double[] ghostCenters; // x, y pairs
+
+    Snapshot(long tick, double playerX, double playerY, double mouthOpen, int playerDirection, double[] ghostCenters) {
+        this.tick = tick;
+        this.time = System.nanoTime();
+        this.playerX = playerX;
+        this.playerY = playerY;
+        this.mouthOpen = mouthOpen;
+        this.playerDirection = playerDirection;
+        this.ghostCenters = ghostCenters;
+    }
+
+    int getGhostCount() { return ghostCenters.length/2; }
+    double getGhostX(int ghost) { return ghostCenters[ghost*2]; }
+    double getGhostY(int ghost) { return ghostCenters[ghost*2+1]; }
+}
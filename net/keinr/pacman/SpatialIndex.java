@@ -0,0 +1,114 @@
+package net.keinr.pacman;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid of buckets, one per tile, holding which entities are in each tile.
+ * Entities are numbered 0 to capacity-1, and each bucket is an intrusive linked list
+ * so that moving an entity between tiles is constant time and allocation free.
+ * Buckets are stored per chunk, and a chunk's are only allocated once an entity enters it,
+ * so the parts of a map nothing ever goes to don't cost anything.
+ * @author Orion Musselman (KeinR)
+ */
+
+final class SpatialIndex {
+    private static final int NONE = -1;
+    private static final int CHUNK_SHIFT = ChunkedMap.CHUNK_SHIFT;
+    private static final int CHUNK_SIZE = ChunkedMap.CHUNK_SIZE;
+    private static final int CHUNK_MASK = CHUNK_SIZE-1;
+
+    private final int width, height, chunkColumns;
+    private final int[][] heads; // Chunk index -> tile within chunk -> first entity in it, or NONE; null until used
+    private final int[] next, previous; // Entity -> neighbours in its bucket's list, or NONE
+    private final int[] buckets; // Entity -> tile index (y*width + x) it's in, or NONE if it isn't in the index
+
+    /**
+     * @param width Width of the map in tiles
+     * @param height Height of the map in tiles
+     * @param capacity How many entities can be indexed
+     */
+    SpatialIndex(int width, int height, int capacity) {
+        this.width = width;
+        this.height = height;
+        this.chunkColumns = (width+CHUNK_MASK) >> CHUNK_SHIFT;
+        this.heads = new int[chunkColumns*((height+CHUNK_MASK) >> CHUNK_SHIFT)][];
+        this.next = new int[capacity];
+        this.previous = new int[capacity];
+        this.buckets = new int[capacity];
+        Arrays.fill(buckets, NONE);
+    }
+
+    /**
+     * Puts an entity in a tile, doing nothing if it's already there
+     * @param entity The entity
+     * @param x Grid x
+     * @param y Grid y
+     */
+    void move(int entity, int x, int y) {
+        final int bucket = y*width + x;
+        if (buckets[entity] == bucket) return;
+        remove(entity);
+        buckets[entity] = bucket;
+        previous[entity] = NONE;
+        final int head = head(x, y);
+        next[entity] = head;
+        if (head != NONE) previous[head] = entity;
+        setHead(x, y, entity);
+    }
+
+    /**
+     * Takes an entity out of the index, if it's in it
+     * @param entity The entity
+     */
+    void remove(int entity) {
+        final int bucket = buckets[entity];
+        if (bucket == NONE) return;
+        if (previous[entity] != NONE) next[previous[entity]] = next[entity];
+        else setHead(bucket % width, bucket / width, next[entity]);
+        if (next[entity] != NONE) previous[next[entity]] = previous[entity];
+        buckets[entity] = NONE;
+    }
+
+    /**
+     * Finds the entities within a square of tiles. Buckets are visited row by row,
+     * so the order is the same for the same history of moves.
+     * @param x Grid x of the center tile
+     * @param y Grid y of the center tile
+     * @param radius How many tiles out from the center to look
+     * @param out Where to put the entities found; must be big enough to hold all of them
+     * @return How many entities were found
+     */
+    int near(int x, int y, int radius, int[] out) {
+        final int x0 = Math.max(0, x-radius), x1 = Math.min(width-1, x+radius);
+        final int y0 = Math.max(0, y-radius), y1 = Math.min(height-1, y+radius);
+        int count = 0;
+        for (int by = y0; by <= y1; by++) {
+            for (int bx = x0; bx <= x1; bx++) {
+                for (int entity = head(bx, by); entity != NONE; entity = next[entity]) {
+                    out[count++] = entity;
+                }
+            }
+        }
+        return count;
+    }
+
+    private int head(int x, int y) {
+        final int[] chunk = heads[(y >> CHUNK_SHIFT)*chunkColumns + (x >> CHUNK_SHIFT)];
+        return chunk == null ? NONE : chunk[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)];
+    }
+
+    private void setHead(int x, int y, int entity) {
+        final int index = (y >> CHUNK_SHIFT)*chunkColumns + (x >> CHUNK_SHIFT);
+        if (heads[index] == null) {
+            heads[index] = new int[CHUNK_SIZE*CHUNK_SIZE];
+            Arrays.fill(heads[index], NONE);
+        }
+        heads[index][((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)] = entity;
+    }
+
+    /** @return Grid x of the tile the entity is in, or -1 if it isn't in the index */
+    int getX(int entity) { return buckets[entity] == NONE ? -1 : buckets[entity] % width; }
+
+    /** @return Grid y of the tile the entity is in, or -1 if it isn't in the index */
+    int getY(int entity) { return buckets[entity] == NONE ? -1 : buckets[entity] / width; }
+}
@@ -0,0 +1,44 @@
+package net.keinr.pacman;
+
+/**
+ * Receives state changes from the engine. The engine never touches
+ * display nodes itself, so a game can be run without a display by
+ * using {@link #NONE}.
+ * @author Orion Musselman (KeinR)
+ */
+
+interface View {
+
+    /** A view that ignores everything, used when running headless */
+    View NONE = new View() {};
+
+    /** Called once the map, dots & ghosts have been loaded */
+    default void mapLoaded() {}
+
+    /** Called at the end of every tick that changed entity positions */
+    default void update() {}
+
+    /** Called once a batch of changes is complete: after a tick, a key press, or loading */
+    default void flush() {}
+
+    default void setScore(int value) {}
+    default void setHighScore(int value) {}
+    default void setGameOver() {}
+    default void setStartGame() {}
+    default void setPaused() {}
+    default void setUnpaused() {}
+
+    /**
+     * @param x Tile grid x
+     * @param y Tile grid y
+     * @param visible If the dot on the tile should be shown
+     */
+    default void setDotVisible(int x, int y, boolean visible) {}
+
+    /** Called when every dot has been put back */
+    default void resetDots() {}
+
+    default void setGhostNormal(int ghost) {}
+    default void setGhostScared(int ghost) {}
+    default void setGhostDead(int ghost) {}
+}
@@ -1,5 +1,12 @@
 package net.keinr.util;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static net.keinr.util.Ansi.RESET;
@@ -10,16 +17,46 @@ import static net.keinr.util.Ansi.GREEN;
  * Provides methods that allow better debug logging.
  * Logs a string, allong with the class & line number
  * that the function was called using the stack trace.
+ * Messages can be given as a Supplier or as a pattern with "{}" placeholders, so that nothing
+ * is built while debug is off. The caller is only looked up (with a StackWalker, which walks just
+ * the frames it needs) when a message is actually logged.
+ * Note that boxing arguments & capturing lambdas can still allocate at the call site; for call sites
+ * that need to be completely free, wrap them in a check of a static final flag.
+ * In async mode (see {@link #startAsync(int, Overflow)}) logging threads only fill in a preallocated record
+ * in a lock-free ring, and a background thread formats & prints them in batches.
  * @requires Ansi
  * 
  * @author Orion Musselman (KeinR)
- * @version 2.0.0
+ * @version 2.2.0
  */
 
 public class Debug {
+    private static final StackWalker walker = StackWalker.getInstance();
+    private static final long WRITER_SLEEP = 1000000L; // How long the async writer sleeps when there's nothing to write, in nanoseconds
+
     private Pattern shorthand;
     private boolean debug;
     private String name;
+    private final Map<String, String> classNames = new ConcurrentHashMap<String, String>(); // Class name -> class name with the shorthand removed
+
+    // Async mode; ring is null when logging synchronously
+    private volatile Ring ring;
+    private volatile Thread writer;
+    private Thread shutdownHook; // Flushes the ring if the JVM exits while async; only registered while it is
+    private Overflow overflow = Overflow.DROP;
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * What to do when logging in async mode and the ring is full
+     */
+    public enum Overflow {
+        /** Throw the new record away, and count it as dropped */
+        DROP,
+        /** Wait for the writer to make room */
+        BLOCK,
+        /** Print it on the logging thread, like in sync mode. It may come out ahead of records still in the ring */
+        WRITE
+    }
 
     /**
      * Create a new instance, while setting the shorthand
@@ -95,6 +132,7 @@ public class Debug {
      */
     public void setShorthand(String regex) {
         shorthand = Pattern.compile(regex); // Precompiling to improve performance
+        classNames.clear();
     }
 
     /**
@@ -120,22 +158,109 @@ public class Debug {
      * @param message the message to log
      */
     public void log(String message) {
-        logRouted(message, 1);
+        logRouted(1, message);
     }
 
     /**
      * Logs a string depending on the debug status of this instance, and checks past a routing function
      * by specifying a "distance" paremeter.
-     * For example, if you have just one method that is wrapping Debug#log(String,int), you specify a distance of 1, as
-     * you want to ignore one entree in the stack trace, the wrapper function that called Debug#log(String,int).
+     * For example, if you have just one method that is wrapping Debug#logRouted(int,String), you specify a distance of 1, as
+     * you want to ignore one entree in the stack trace, the wrapper function that called Debug#logRouted(int,String).
+     * The distance always comes first in the routed methods, so it can't get mixed up with the arguments.
      * @param distance number of stack trace entrees to ignore
      * @param message the message to log
      */
+    public void logRouted(int distance, String message) {
+        if (debug) submit(caller(distance), message, 0, null, null, null);
+    }
+
+    /**
+     * Old argument order of {@link #logRouted(int, String)}
+     * @param message the message to log
+     * @param distance number of stack trace entrees to ignore
+     * @deprecated use {@link #logRouted(int, String)}, which takes the distance first like the other routed methods
+     */
+    @Deprecated
     public void logRouted(String message, int distance) {
-        if (debug) {
-            StackTraceElement call = Thread.currentThread().getStackTrace()[2+distance]; // Get stacktrace for where function was called
-            System.out.println("["+GREEN+(name.length()!=0?name:"debug")+CYAN+"@"+shorthand.matcher(call.getClassName()).replaceAll("")+":"+call.getLineNumber()+RESET+"] "+message);
-        }
+        if (debug) submit(caller(distance), message, 0, null, null, null);
+    }
+
+    /**
+     * Logs a message depending on the debug status of this instance, only building it if it will be logged
+     * @param message gives the message to log
+     */
+    public void log(Supplier<String> message) {
+        logRouted(1, message);
+    }
+
+    /**
+     * Routed version of {@link #log(Supplier)}; see {@link #logRouted(int, String)} for routing
+     * @param distance number of stack trace entrees to ignore
+     * @param message gives the message to log
+     */
+    public void logRouted(int distance, Supplier<String> message) {
+        if (debug) submit(caller(distance), message.get(), 0, null, null, null);
+    }
+
+    /**
+     * Logs a message depending on the debug status of this instance, with each "{}" in the pattern replaced
+     * by the next argument. The message is only built if it will be logged.
+     * In async mode the message is built later on the writer thread, so arguments should be immutable.
+     * @param pattern the message, with "{}" where the arguments go
+     * @param arg the argument
+     */
+    public void log(String pattern, Object arg) {
+        logRouted(1, pattern, arg);
+    }
+
+    /**
+     * Two argument version of {@link #log(String, Object)}
+     * @param pattern the message, with "{}" where the arguments go
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    public void log(String pattern, Object arg1, Object arg2) {
+        logRouted(1, pattern, arg1, arg2);
+    }
+
+    /**
+     * Any number of arguments version of {@link #log(String, Object)}
+     * @param pattern the message, with "{}" where the arguments go
+     * @param args the arguments
+     */
+    public void log(String pattern, Object... args) {
+        logRouted(1, pattern, args);
+    }
+
+    /**
+     * Routed version of {@link #log(String, Object)}; see {@link #logRouted(int, String)} for routing
+     * @param distance number of stack trace entrees to ignore
+     * @param pattern the message, with "{}" where the arguments go
+     * @param arg the argument
+     */
+    public void logRouted(int distance, String pattern, Object arg) {
+        if (debug) submit(caller(distance), pattern, 1, arg, null, null);
+    }
+
+    /**
+     * Routed version of {@link #log(String, Object, Object)}; see {@link #logRouted(int, String)} for routing
+     * @param distance number of stack trace entrees to ignore
+     * @param pattern the message, with "{}" where the arguments go
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    public void logRouted(int distance, String pattern, Object arg1, Object arg2) {
+        if (debug) submit(caller(distance), pattern, 2, arg1, arg2, null);
+    }
+
+    /**
+     * Routed version of {@link #log(String, Object...)}; see {@link #logRouted(int, String)} for routing
+     * @param distance number of stack trace entrees to ignore
+     * @param pattern the message, with "{}" where the arguments go
+     * @param args the arguments
+     */
+    public void logRouted(int distance, String pattern, Object... args) {
+        if (debug) submit(caller(distance), pattern, args.length, null, null, args);
     }
 
     /**
@@ -143,7 +268,18 @@ public class Debug {
      * @param function the function to run, implementation of the Runnable interface
      */
     public void logFunction(Runnable function) {
-        logFunctionRouted(function, 1);
+        logFunctionRouted(1, function);
+    }
+
+    /**
+     * Old argument order of {@link #logFunctionRouted(int, Runnable)}
+     * @param function the function to run, implementation of the Runnable interface
+     * @param distance how many stack trace entrees to ignore
+     * @deprecated use {@link #logFunctionRouted(int, Runnable)}, which takes the distance first like the other routed methods
+     */
+    @Deprecated
+    public void logFunctionRouted(Runnable function, int distance) {
+        logFunctionRouted(distance+1, function);
     }
 
     /**
@@ -151,12 +287,10 @@ public class Debug {
      * @param distance how many stack trace entrees to ignore
      * @param function the function to run, implementation of the Runnable interface
      */
-    public void logFunctionRouted(Runnable function, int distance) {
+    public void logFunctionRouted(int distance, Runnable function) {
         if (debug) {
-            StackTraceElement call = Thread.currentThread().getStackTrace()[2];
             System.out.println(
-                GREEN+"================= start "+(name.length()!=0?name:"debug")+CYAN+"@"+
-                shorthand.matcher(call.getClassName()).replaceAll("")+":"+call.getLineNumber()+
+                GREEN+"================= start "+(name.length()!=0?name:"debug")+CYAN+"@"+location(caller(distance))+
                 GREEN+" function ================="+RESET);
 
             function.run();
@@ -164,4 +298,276 @@ public class Debug {
             System.out.println(GREEN+"======================== end debug function ========================="+RESET);
         }
     }
+
+    /**
+     * Starts logging asynchronously: messages are put in a ring buffer, and a background thread prints them.
+     * Anything still in the ring is printed when {@link #stopAsync()} is called or the JVM exits.
+     * Note that {@link #logFunction(Runnable)} still runs & prints on the calling thread.
+     * @param capacity how many records the ring holds, rounded up to a power of two
+     * @param overflow what to do when the ring is full
+     * @throws IllegalStateException if already logging asynchronously
+     */
+    public synchronized void startAsync(int capacity, Overflow overflow) {
+        if (ring != null) throw new IllegalStateException("Already logging asynchronously");
+        this.overflow = overflow;
+        final Ring started = new Ring(capacity);
+        ring = started;
+        final Thread thread = new Thread(() -> writeLoop(started), "debug-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        shutdownHook = new Thread(this::stopAsync, "debug-flush");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Prints everything left in the ring, and goes back to logging on the calling thread
+     */
+    public synchronized void stopAsync() {
+        final Thread thread = writer;
+        if (thread == null) return;
+        final Ring ring = this.ring;
+        this.ring = null; // New messages are printed right away from now on, and the writer finishes up
+        writer = null;
+        if (Thread.currentThread() != shutdownHook) { // Otherwise we're the hook, and it's too late to take it off
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down, the hook will find nothing left to do
+            }
+        }
+        shutdownHook = null;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything published while the writer was finishing up
+        flush(ring);
+    }
+
+    /**
+     * Gets if logging is currently asynchronous
+     * @return true if messages go through the ring
+     */
+    public boolean isAsync() { return ring != null; }
+
+    /**
+     * Gets how many records have been thrown away because the ring was full
+     * @return the number of dropped records
+     */
+    public long getDropped() { return dropped.sum(); }
+
+    private void submit(StackWalker.StackFrame call, String pattern, int argCount, Object arg1, Object arg2, Object[] args) {
+        final Ring ring = this.ring;
+        if (ring == null) {
+            print(call, pattern, argCount, arg1, arg2, args);
+            return;
+        }
+        Record record = ring.claim();
+        while (record == null) {
+            switch (overflow) {
+                case DROP:
+                    dropped.increment();
+                    return;
+                case WRITE:
+                    print(call, pattern, argCount, arg1, arg2, args);
+                    return;
+                default: // BLOCK
+                    final Thread thread = writer;
+                    if (this.ring != ring || thread == null || !thread.isAlive()) { // Nobody's going to make room
+                        print(call, pattern, argCount, arg1, arg2, args);
+                        return;
+                    }
+                    LockSupport.unpark(thread);
+                    Thread.onSpinWait();
+                    record = ring.claim();
+            }
+        }
+        record.className = className(call);
+        record.line = call == null ? -1 : call.getLineNumber();
+        record.pattern = pattern;
+        record.argCount = argCount;
+        record.arg1 = arg1;
+        record.arg2 = arg2;
+        record.args = args;
+        ring.publish(record);
+        // If async logging stopped in the meantime, its last drain may have been too early to see this record.
+        // Either that drain sees it or we see the ring was swapped out (both sides are volatile), so print it ourselves.
+        if (this.ring != ring) flush(ring);
+    }
+
+    // Runs on the writer thread. Prints whatever is in the ring as one batch, then sleeps for a bit if it was empty
+    private void writeLoop(Ring ring) {
+        final StringBuilder batch = new StringBuilder(4096);
+        long reportedDrops = 0;
+        while (true) {
+            final boolean stopping = this.ring != ring; // Checked before draining, so nothing published before stopAsync is missed
+            drain(ring, batch);
+            final long drops = dropped.sum();
+            if (drops != reportedDrops) {
+                batch.append(header(getClass().getSimpleName(), -1)).append(drops-reportedDrops).append(" records dropped, ring was full")
+                    .append(System.lineSeparator());
+                reportedDrops = drops;
+            }
+            if (batch.length() > 0) {
+                System.out.print(batch);
+                System.out.flush();
+                batch.setLength(0);
+            } else if (stopping) {
+                return;
+            } else {
+                LockSupport.parkNanos(WRITER_SLEEP);
+            }
+        }
+    }
+
+    // Takes everything published so far out of the ring. Locked, since the ring only allows one reader at a time,
+    // and once it's been swapped out the writer isn't the only one who drains it.
+    private void drain(Ring ring, StringBuilder batch) {
+        synchronized (ring) {
+            for (Record record = ring.peek(); record != null; record = ring.peek()) {
+                batch.append(header(record.className, record.line))
+                    .append(format(record.pattern, record.argCount, record.arg1, record.arg2, record.args))
+                    .append(System.lineSeparator());
+                ring.release(record);
+            }
+        }
+    }
+
+    // Prints whatever is left in a ring that the writer is done with
+    private void flush(Ring ring) {
+        final StringBuilder batch = new StringBuilder();
+        drain(ring, batch);
+        if (batch.length() > 0) {
+            System.out.print(batch);
+            System.out.flush();
+        }
+    }
+
+    private void print(StackWalker.StackFrame call, String pattern, int argCount, Object arg1, Object arg2, Object[] args) {
+        System.out.println(header(className(call), call == null ? -1 : call.getLineNumber())+format(pattern, argCount, arg1, arg2, args));
+    }
+
+    private String header(String className, int line) {
+        return "["+GREEN+(name.length()!=0?name:"debug")+CYAN+"@"+className+(line >= 0 ? ":"+line : "")+RESET+"] ";
+    }
+
+    /**
+     * Finds where a logging method was called from. Must be called directly from the public method doing the logging.
+     * @param distance number of stack trace entrees to ignore past the logging method
+     * @return the calling frame, or null if the stack isn't that deep
+     */
+    private StackWalker.StackFrame caller(int distance) {
+        // Only walks as far as it needs to, unlike Thread#getStackTrace()
+        return walker.walk(frames -> frames.skip(2+distance).findFirst()).orElse(null);
+    }
+
+    private String className(StackWalker.StackFrame call) {
+        if (call == null) return "?";
+        return classNames.computeIfAbsent(call.getClassName(), name -> shorthand.matcher(name).replaceAll(""));
+    }
+
+    private String location(StackWalker.StackFrame call) {
+        return call == null ? "?" : className(call)+":"+call.getLineNumber();
+    }
+
+    private static String format(String pattern, int argCount, Object arg1, Object arg2, Object[] args) {
+        switch (argCount) {
+            case 0: return pattern;
+            case 1: return args == null ? format(pattern, arg1) : format(pattern, args);
+            case 2: return args == null ? format(pattern, arg1, arg2) : format(pattern, args);
+            default: return format(pattern, args);
+        }
+    }
+
+    private static String format(String pattern, Object... args) {
+        final StringBuilder message = new StringBuilder(pattern.length() + 16*args.length);
+        int from = 0;
+        for (Object arg : args) {
+            final int at = pattern.indexOf("{}", from);
+            if (at == -1) break;
+            message.append(pattern, from, at).append(arg);
+            from = at+2;
+        }
+        return message.append(pattern, from, pattern.length()).toString();
+    }
+
+    /**
+     * One log message, waiting to be formatted. Allocated once with the ring and reused.
+     */
+    private static final class Record {
+        private final int index;
+        private long position; // Where in the sequence of all records this one is
+        private String className, pattern;
+        private int line, argCount;
+        private Object arg1, arg2;
+        private Object[] args;
+
+        private Record(int index) { this.index = index; }
+    }
+
+    /**
+     * Bounded lock-free ring of records, for any number of logging threads and one writer.
+     * Each slot has a sequence number saying whose turn it is: a logging thread may fill a slot when its
+     * sequence equals the position it claimed, and the writer may read it once it's one past that.
+     */
+    private static final class Ring {
+        private final Record[] records;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong(); // Next position to claim
+        private long head; // Next position to read, only touched by the writer
+
+        private Ring(int capacity) {
+            final int size = Integer.highestOneBit(Math.max(2, capacity-1)) << 1;
+            records = new Record[size];
+            sequences = new AtomicLongArray(size);
+            mask = size-1;
+            for (int i = 0; i < size; i++) {
+                records[i] = new Record(i);
+                sequences.set(i, i);
+            }
+        }
+
+        // @return a record to fill in & publish, or null if the ring is full
+        private Record claim() {
+            long position = tail.get();
+            while (true) {
+                final int index = (int)position & mask;
+                final long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position+1)) {
+                        final Record record = records[index];
+                        record.position = position;
+                        return record;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return null; // The writer hasn't gotten to this slot since last time around
+                } else {
+                    position = tail.get(); // Someone else claimed it first
+                }
+            }
+        }
+
+        private void publish(Record record) {
+            sequences.set(record.index, record.position+1);
+        }
+
+        // @return the next record to write, or null if it isn't published yet
+        private Record peek() {
+            final int index = (int)head & mask;
+            return sequences.get(index) == head+1 ? records[index] : null;
+        }
+
+        private void release(Record record) {
+            record.arg1 = null; // Don't keep arguments alive
+            record.arg2 = null;
+            record.args = null;
+            head++;
+            sequences.set(record.index, record.position+records.length);
+        }
+    }
 }
@@ -5,10 +5,13 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 
 /**
- * A class used for running tasks at specified intervals
+ * A class used for running tasks at specified intervals.
+ * By default the thread sleeps for the interval between calls, so the real period is the interval plus however
+ * long the function takes. In fixed rate mode calls are scheduled against {@link System#nanoTime()} so that the
+ * rate stays steady, and the thread will catch up on late calls up to a set limit per wakeup.
  * 
  * @author Orion Musselman (KeinR)
- * @version 1.0.1
+ * @version 1.1.0
  */
 
 public class TimedThread implements Runnable {
@@ -18,6 +21,12 @@ public class TimedThread implements Runnable {
     private Runnable function;
     private String name;
 
+    private boolean fixedRate = false;
+    private int maxCatchUp = 1;
+
+    // Fixed rate statistics; only ever written by the running thread
+    private volatile long ticks, overruns, missedTicks;
+
     private Thread currentThread;
     private boolean threadRunning = false;
     private final ExecutorService executor = Executors.newSingleThreadExecutor(this::threadFactory);
@@ -58,6 +67,23 @@ public class TimedThread implements Runnable {
      */
     public void setInterval(int interval) { this.interval = (long)interval; }
 
+    /**
+     * Toggles fixed rate mode. Takes effect the next time the thread is started.
+     * @param fixedRate true to schedule calls at a steady rate, false to sleep for the interval between calls
+     */
+    public void setFixedRate(boolean fixedRate) { this.fixedRate = fixedRate; }
+
+    /**
+     * Sets how many calls can be made back to back when the thread has fallen behind in fixed rate mode.
+     * Any calls still owed after that are dropped and counted as missed.
+     * @param maxCatchUp the max number of calls per wakeup, at least 1
+     * @throws IllegalArgumentException if maxCatchUp is less than 1
+     */
+    public void setMaxCatchUp(int maxCatchUp) {
+        if (maxCatchUp < 1) throw new IllegalArgumentException("maxCatchUp must be at least 1");
+        this.maxCatchUp = maxCatchUp;
+    }
+
     /**
      * Gives the thread and all future versions a new name
      * @param name the new name
@@ -85,6 +111,36 @@ public class TimedThread implements Runnable {
      */
     public boolean isRunning() { return threadRunning; }
 
+    /**
+     * Get if the thread is in fixed rate mode
+     * @return true if calls are scheduled at a steady rate
+     */
+    public boolean isFixedRate() { return fixedRate; }
+
+    /**
+     * Gets the max number of back to back calls in fixed rate mode
+     * @return the max number of calls per wakeup
+     */
+    public int getMaxCatchUp() { return maxCatchUp; }
+
+    /**
+     * Gets how many times the function has been called in fixed rate mode
+     * @return the number of calls made
+     */
+    public long getTicks() { return ticks; }
+
+    /**
+     * Gets how many calls in fixed rate mode took longer than the interval
+     * @return the number of overrunning calls
+     */
+    public long getOverruns() { return overruns; }
+
+    /**
+     * Gets how many calls in fixed rate mode were dropped because the thread fell too far behind
+     * @return the number of missed calls
+     */
+    public long getMissedTicks() { return missedTicks; }
+
     /**
      * Start the thread
      * @throws IllegalTimedThreadStateException if the thread IS still running
@@ -116,15 +172,59 @@ public class TimedThread implements Runnable {
     @Override
     public void run() {
         try {
-            while (!Thread.currentThread().isInterrupted()) {
-                Thread.sleep(interval);
-                function.run();
+            if (fixedRate) {
+                runFixedRate();
+            } else {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(interval);
+                    function.run();
+                }
             }
         } catch (InterruptedException e) {
             // Wake up and exit thread
         }
     }
 
+    /**
+     * Calls the function at a steady rate, measured with System#nanoTime() so that
+     * time spent in the function and sleep inaccuracy don't add up over time
+     * @throws InterruptedException when the thread is stopped
+     */
+    private void runFixedRate() throws InterruptedException {
+        long next = System.nanoTime() + interval*1000000L;
+        while (!Thread.currentThread().isInterrupted()) {
+            final long period = interval*1000000L;
+            final long wait = next - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+                continue;
+            }
+
+            // Due (or late): make up for lost calls, but only so many at once.
+            // One clock reading per call, so the loop & the check after it agree on how far behind we are
+            final int budget = maxCatchUp; // Read once, in case it's changed meanwhile
+            int calls = 0;
+            long now = System.nanoTime();
+            while (calls < budget && next - now <= 0) {
+                function.run();
+                final long finished = System.nanoTime();
+                ticks++;
+                if (finished - now > period) overruns++;
+                now = finished;
+                next += period;
+                calls++;
+            }
+
+            // Used up the catch-up budget and still behind, so give up on the backlog instead of spiraling
+            final long behind = now - next;
+            if (calls == budget && behind >= 0) {
+                final long missed = behind / period + 1;
+                missedTicks += missed;
+                next += missed * period;
+            }
+        }
+    }
+
     /**
      * Used by the ExecutorService to create new threads
      * @param r the given Runnable